@@ -0,0 +1,30 @@
+package com.example.decoder.benchmarks;
+
+import java.util.UUID;
+
+/**
+ * Element type with a configurable payload size and nesting depth.
+ */
+public class BenchItem {
+
+    public String uuid;
+    public String payload;
+    public BenchItem child;
+
+    static BenchItem create(int payloadSize, int nesting) {
+        BenchItem item = new BenchItem();
+        item.uuid = UUID.randomUUID().toString();
+        if (payloadSize > 0) {
+            StringBuilder payload = new StringBuilder(payloadSize);
+            for (int i = 0; i < payloadSize; i++) {
+                payload.append((char) ('a' + i % 26));
+            }
+            item.payload = payload.toString();
+        }
+        if (nesting > 0) {
+            item.child = create(payloadSize, nesting - 1);
+        }
+        return item;
+    }
+
+}
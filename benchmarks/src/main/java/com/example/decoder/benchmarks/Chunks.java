@@ -0,0 +1,51 @@
+package com.example.decoder.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Splits an input into chunks of random size, like a network transport
+ * would.
+ */
+class Chunks {
+
+    private final List<byte[]> chunks = new ArrayList<>();
+    private final int size;
+
+    /**
+     * @param chunkSizes range of chunk sizes, e.g. {@code "10-60"}
+     */
+    Chunks(byte[] input, String chunkSizes) {
+        String[] range = chunkSizes.split("-");
+        int minChunkSize = Integer.parseInt(range[0]);
+        int maxChunkSize = Integer.parseInt(range[1]);
+
+        Random rnd = new Random(0x0123456789abcdefL);
+        int begin = 0;
+        while (begin < input.length) {
+            int length = minChunkSize + rnd.nextInt(maxChunkSize - minChunkSize + 1);
+            int end = Math.min(input.length, begin + length);
+            byte[] chunk = new byte[end - begin];
+            System.arraycopy(input, begin, chunk, 0, chunk.length);
+            this.chunks.add(chunk);
+            begin = end;
+        }
+        this.size = input.length;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    Flux<DataBuffer> toDataBuffers(DataBufferFactory bufferFactory) {
+        return Flux.fromIterable(this.chunks)
+                .map(chunk -> bufferFactory.allocateBuffer(chunk.length).write(chunk));
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.example.decoder.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import com.example.decoder.ContentInflater;
+import com.example.decoder.Item;
+import com.example.decoder.ItemBinder;
+import com.example.decoder.StreamingEnvelopeDecoder;
+import com.example.decoder.controller.ItemsResponseEncoder;
+import com.example.decoder.controller.ResponseCompressor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Time per response to compress the encoder's output on the server, and to
+ * inflate and decode it on the client. The response size of each setting is
+ * printed during setup, so CPU time can be weighed against bytes on the
+ * wire. The level doesn't apply to {@code identity}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    static final int BATCH_SIZE = 128;
+
+    @Param({ "100", "10000", "100000" })
+    public int itemCount;
+
+    @Param({ "identity", "gzip", "deflate" })
+    public String encoding;
+
+    @Param({ "1", "6" })
+    public int level;
+
+    private final DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+    private List<byte[]> batches;
+    private List<byte[]> response;
+    private StreamingEnvelopeDecoder<Item> decoder;
+
+    @Setup
+    public void setup() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        ItemsResponseEncoder encoder = new ItemsResponseEncoder(objectMapper);
+        this.batches = new ArrayList<>();
+        List<Item> batch = new ArrayList<>();
+        for (int i = 0; i < this.itemCount; i++) {
+            batch.add(new Item(UUID.randomUUID().toString()));
+            if (batch.size() == BATCH_SIZE || i == this.itemCount - 1) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                encoder.addItems(out, batch);
+                this.batches.add(out.toByteArray());
+                batch = new ArrayList<>();
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.finish(out);
+        this.batches.add(out.toByteArray());
+
+        this.response = compress()
+                .map(dataBuffer -> {
+                    byte[] bytes = new byte[dataBuffer.readableByteCount()];
+                    dataBuffer.read(bytes);
+                    DataBufferUtils.release(dataBuffer);
+                    return bytes;
+                })
+                .collectList()
+                .block();
+        long size = this.response.stream().mapToLong(bytes -> bytes.length).sum();
+        System.out.printf("%n%s: %d bytes, %.1f bytes per item%n", this.encoding, size,
+                (double) size / this.itemCount);
+
+        this.decoder = new StreamingEnvelopeDecoder<>(objectMapper, Item.class);
+        this.decoder.setEntityBinder(new ItemBinder());
+    }
+
+    @Benchmark
+    public void compress(Blackhole bh) {
+        compress().doOnNext(dataBuffer -> {
+            bh.consume(dataBuffer.readableByteCount());
+            DataBufferUtils.release(dataBuffer);
+        }).blockLast();
+    }
+
+    @Benchmark
+    public void inflateAndDecode(Blackhole bh) {
+        Flux<DataBuffer> body = toDataBuffers(this.response);
+        this.decoder.decode(ContentInflater.inflate(body, this.encoding, this.bufferFactory))
+                .doOnNext(bh::consume)
+                .blockLast();
+    }
+
+    private Flux<DataBuffer> compress() {
+        Flux<DataBuffer> body = toDataBuffers(this.batches);
+        if ("identity".equals(this.encoding)) {
+            return body;
+        }
+        return ResponseCompressor.compress(body, this.encoding, this.level, this.bufferFactory);
+    }
+
+    private Flux<DataBuffer> toDataBuffers(List<byte[]> chunks) {
+        return Flux.fromIterable(chunks)
+                .map(chunk -> this.bufferFactory.allocateBuffer(chunk.length).write(chunk));
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.example.decoder.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+
+import com.example.decoder.StreamingEnvelopeDecoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Decode throughput per element of the envelope decoder, compared with
+ * Spring's {@link Jackson2JsonDecoder} (based on {@code Jackson2Tokenizer})
+ * reading the same elements from a plain JSON array.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecoderBenchmark {
+
+    static final int ITEM_COUNT = 10000;
+
+    @Param({ "10-60", "512-2048", "8192-8192" })
+    public String chunkSizes;
+
+    @Param({ "0", "256" })
+    public int payloadSize;
+
+    @Param({ "0", "3" })
+    public int nesting;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+    private final ResolvableType elementType = ResolvableType.forClass(BenchItem.class);
+
+    private Chunks envelope;
+    private Chunks array;
+    private StreamingEnvelopeDecoder<BenchItem> envelopeDecoder;
+    private Jackson2JsonDecoder jackson2JsonDecoder;
+
+    @Setup
+    public void setup() throws Exception {
+        List<BenchItem> items = new ArrayList<>(ITEM_COUNT);
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            items.add(BenchItem.create(this.payloadSize, this.nesting));
+        }
+
+        String json = this.objectMapper.writeValueAsString(items);
+        this.array = new Chunks(json.getBytes("UTF-8"), this.chunkSizes);
+        String envelopeJson = "{\"items\":" + json + "}";
+        this.envelope = new Chunks(envelopeJson.getBytes("UTF-8"), this.chunkSizes);
+
+        this.envelopeDecoder = new StreamingEnvelopeDecoder<>(this.objectMapper, BenchItem.class);
+        this.jackson2JsonDecoder = new Jackson2JsonDecoder(this.objectMapper);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEM_COUNT)
+    public void envelopeDecoder(Blackhole bh) {
+        this.envelopeDecoder.decode(this.envelope.toDataBuffers(this.bufferFactory))
+                .doOnNext(bh::consume)
+                .blockLast();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEM_COUNT)
+    public void jackson2JsonDecoder(Blackhole bh) {
+        this.jackson2JsonDecoder
+                .decode(this.array.toDataBuffers(this.bufferFactory), this.elementType,
+                        MediaType.APPLICATION_JSON, Collections.emptyMap())
+                .doOnNext(bh::consume)
+                .blockLast();
+    }
+
+}
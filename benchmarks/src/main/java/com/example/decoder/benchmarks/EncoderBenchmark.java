@@ -0,0 +1,105 @@
+package com.example.decoder.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+
+import com.example.decoder.Item;
+import com.example.decoder.controller.ItemsResponseEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Encode throughput per {@link Item} of {@link ItemsResponseEncoder}, writing
+ * batches into heap, direct or pooled direct buffers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncoderBenchmark {
+
+    static final int ITEM_COUNT = 10000;
+
+    @Param({ "heap", "direct", "pooled" })
+    public String buffers;
+
+    @Param({ "1", "128" })
+    public int batchSize;
+
+    @Param({ "8192" })
+    public int bufferSize;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private DataBufferFactory bufferFactory;
+    private List<List<Item>> batches;
+
+    @Setup
+    public void setup() {
+        switch (this.buffers) {
+        case "direct":
+            this.bufferFactory = new DefaultDataBufferFactory(true);
+            break;
+        case "pooled":
+            this.bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+            break;
+        default:
+            this.bufferFactory = new DefaultDataBufferFactory();
+            break;
+        }
+
+        this.batches = new ArrayList<>();
+        List<Item> batch = new ArrayList<>();
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            batch.add(new Item(UUID.randomUUID().toString()));
+            if (batch.size() == this.batchSize) {
+                this.batches.add(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            this.batches.add(batch);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEM_COUNT)
+    public void encode(Blackhole bh) throws Exception {
+        ItemsResponseEncoder encoder = new ItemsResponseEncoder(this.objectMapper);
+        for (List<Item> batch : this.batches) {
+            DataBuffer buffer = this.bufferFactory.allocateBuffer(this.bufferSize);
+            encoder.addItems(buffer.asOutputStream(), batch);
+            bh.consume(buffer.readableByteCount());
+            DataBufferUtils.release(buffer);
+        }
+        DataBuffer buffer = this.bufferFactory.allocateBuffer(this.bufferSize);
+        encoder.finish(buffer.asOutputStream());
+        bh.consume(buffer.readableByteCount());
+        DataBufferUtils.release(buffer);
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.example.decoder.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import com.example.decoder.Item;
+import com.example.decoder.ItemBinder;
+import com.example.decoder.StreamingEnvelopeDecoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Decode throughput per {@link Item} for a JSON envelope, a Smile envelope
+ * and newline delimited JSON. The encoded size per item of each format is
+ * printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+
+    static final int ITEM_COUNT = 10000;
+
+    @Param({ "json", "smile", "ndjson" })
+    public String format;
+
+    @Param({ "512-2048", "8192-8192" })
+    public String chunkSizes;
+
+    private final DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+    private Chunks envelope;
+    private StreamingEnvelopeDecoder<Item> decoder;
+
+    @Setup
+    public void setup() throws Exception {
+        ObjectMapper objectMapper = "smile".equals(this.format)
+                ? new ObjectMapper(new SmileFactory())
+                : new ObjectMapper();
+
+        List<Item> items = new ArrayList<>(ITEM_COUNT);
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            items.add(new Item(UUID.randomUUID().toString()));
+        }
+        byte[] encoded;
+        if ("ndjson".equals(this.format)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (Item item : items) {
+                out.write(objectMapper.writeValueAsBytes(item));
+                out.write('\n');
+            }
+            encoded = out.toByteArray();
+        }
+        else {
+            Envelope value = new Envelope();
+            value.items = items;
+            encoded = objectMapper.writeValueAsBytes(value);
+        }
+        System.out.printf("%n%s: %d bytes, %.1f bytes per item%n", this.format, encoded.length,
+                (double) encoded.length / ITEM_COUNT);
+        this.envelope = new Chunks(encoded, this.chunkSizes);
+
+        this.decoder = new StreamingEnvelopeDecoder<>(objectMapper, Item.class);
+        this.decoder.setEntityBinder(new ItemBinder());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEM_COUNT)
+    public void decode(Blackhole bh) {
+        Flux<DataBuffer> dataBuffers = this.envelope.toDataBuffers(this.bufferFactory);
+        Flux<Item> items = "ndjson".equals(this.format)
+                ? this.decoder.decodeLines(dataBuffers)
+                : this.decoder.decode(dataBuffers);
+        items.doOnNext(bh::consume)
+                .blockLast();
+    }
+
+    public static class Envelope {
+
+        public List<Item> items;
+
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.example.decoder.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+
+import com.example.decoder.CompactItem;
+import com.example.decoder.CompactItemBinder;
+import com.example.decoder.Item;
+import com.example.decoder.ItemBatch;
+import com.example.decoder.ItemBatchPool;
+import com.example.decoder.ItemBinder;
+import com.example.decoder.ItemsDecoder;
+import com.example.decoder.StreamingEnvelopeDecoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Decode throughput per {@link Item}, with direct binding and with the
+ * generic {@code TokenBuffer} route, and per {@link CompactItem} with direct
+ * binding or in {@link ItemBatch}es, from heap and from pooled direct
+ * buffers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ItemsDecoderBenchmark {
+
+    static final int ITEM_COUNT = 10000;
+
+    @Param({ "10-60", "512-2048", "8192-8192" })
+    public String chunkSizes;
+
+    @Param({ "heap", "pooled" })
+    public String buffers;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private DataBufferFactory bufferFactory;
+    private Chunks envelope;
+    private StreamingEnvelopeDecoder<Item> bindingDecoder;
+    private StreamingEnvelopeDecoder<Item> genericDecoder;
+    private StreamingEnvelopeDecoder<CompactItem> compactDecoder;
+    private final ItemBatchPool batchPool = new ItemBatchPool(256, 16);
+
+    @Setup
+    public void setup() throws Exception {
+        this.bufferFactory = "pooled".equals(this.buffers)
+                ? new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT)
+                : new DefaultDataBufferFactory();
+
+        List<Item> items = new ArrayList<>(ITEM_COUNT);
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            items.add(new Item(UUID.randomUUID().toString()));
+        }
+        String json = "{\"items\":" + this.objectMapper.writeValueAsString(items) + "}";
+        this.envelope = new Chunks(json.getBytes("UTF-8"), this.chunkSizes);
+
+        this.bindingDecoder = new StreamingEnvelopeDecoder<>(this.objectMapper, Item.class);
+        this.bindingDecoder.setEntityBinder(new ItemBinder());
+        this.genericDecoder = new StreamingEnvelopeDecoder<>(this.objectMapper, Item.class);
+        this.compactDecoder = new StreamingEnvelopeDecoder<>(this.objectMapper, CompactItem.class);
+        this.compactDecoder.setEntityBinder(new CompactItemBinder());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEM_COUNT)
+    public void directBinding(Blackhole bh) {
+        this.bindingDecoder.decode(this.envelope.toDataBuffers(this.bufferFactory))
+                .doOnNext(bh::consume)
+                .blockLast();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEM_COUNT)
+    public void tokenBuffer(Blackhole bh) {
+        this.genericDecoder.decode(this.envelope.toDataBuffers(this.bufferFactory))
+                .doOnNext(bh::consume)
+                .blockLast();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEM_COUNT)
+    public void compactBinding(Blackhole bh) {
+        this.compactDecoder.decode(this.envelope.toDataBuffers(this.bufferFactory))
+                .doOnNext(bh::consume)
+                .blockLast();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEM_COUNT)
+    public void batches(Blackhole bh) {
+        ItemsDecoder.transformToBatches(this.envelope.toDataBuffers(this.bufferFactory),
+                this.objectMapper, this.batchPool)
+                .doOnNext(batch -> {
+                    for (int i = 0; i < batch.size(); i++) {
+                        bh.consume(batch.getMostSigBits(i));
+                        bh.consume(batch.getLeastSigBits(i));
+                    }
+                    batch.release();
+                })
+                .blockLast();
+    }
+
+}
@@ -0,0 +1,416 @@
+package com.example.decoder.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.server.reactive.HttpHandler;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.adapter.WebHttpHandlerBuilder;
+
+import com.example.decoder.ContentInflater;
+import com.example.decoder.Item;
+import com.example.decoder.ItemsDecoder;
+import com.example.decoder.StreamingEnvelopeDecoder;
+import com.example.decoder.controller.ItemsConfiguration;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.ipc.netty.NettyContext;
+import reactor.ipc.netty.http.server.HttpServer;
+
+/**
+ * Runs many concurrent item streams against a local server and reports
+ * latency percentiles, throughput and resource usage, as opposed to the
+ * single request of {@code ItemsDecoderHttpTest}. Completion times of slow
+ * consumers are reported apart from the others; failed requests are counted
+ * rather than ending the run. Settings are passed as
+ * {@code key=value} arguments:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.example.decoder.benchmarks.LoadHarness \
+ *     clients=64 requests=5000 itemCounts=20:90,10000:10 slowPercent=10 out=load.json
+ * </pre>
+ *
+ * <ul>
+ * <li>{@code clients}: concurrent streams (64)</li>
+ * <li>{@code requests}: measured requests (2000), preceded by
+ * {@code warmupRequests} (a fifth of them)</li>
+ * <li>{@code itemCounts}: item counts per request with their weights
+ * ({@code 20:90,10000:10})</li>
+ * <li>{@code slowPercent}: share of slow consumers (10), which take
+ * {@code slowBatch} items (64) every {@code slowPauseMillis} (5)</li>
+ * <li>{@code format}: {@code json}, {@code ndjson} or {@code smile}</li>
+ * <li>{@code encoding}: {@code identity} or {@code gzip}</li>
+ * <li>{@code out}: the JSON result file ({@code load-results.json})</li>
+ * </ul>
+ *
+ * Server and client share the Reactor Netty event loops of this JVM, so the
+ * event loop utilization covers both sides. It is the CPU time of the event
+ * loop threads over the wall time of the run.
+ */
+public class LoadHarness {
+
+    private final Map<String, String> settings;
+    private final int clients;
+    private final int requests;
+    private final int warmupRequests;
+    private final int[] itemCounts;
+    private final int[] cumulativeWeights;
+    private final int slowPercent;
+    private final int slowBatch;
+    private final Duration slowPause;
+    private final String format;
+    private final String encoding;
+    private final File out;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ObjectMapper smileObjectMapper = new ObjectMapper(new SmileFactory());
+    private final DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+    private final Random random = new Random(0x0123456789abcdefL);
+    private final Sampler sampler = new Sampler();
+
+    private WebClient webClient;
+
+    LoadHarness(Map<String, String> settings) {
+        this.settings = settings;
+        this.clients = Integer.parseInt(setting("clients", "64"));
+        this.requests = Integer.parseInt(setting("requests", "2000"));
+        this.warmupRequests = Integer.parseInt(setting("warmupRequests",
+                Integer.toString(this.requests / 5)));
+        String[] counts = setting("itemCounts", "20:90,10000:10").split(",");
+        this.itemCounts = new int[counts.length];
+        this.cumulativeWeights = new int[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            String[] countAndWeight = counts[i].split(":");
+            this.itemCounts[i] = Integer.parseInt(countAndWeight[0]);
+            this.cumulativeWeights[i] = (i > 0 ? this.cumulativeWeights[i - 1] : 0)
+                    + (countAndWeight.length > 1 ? Integer.parseInt(countAndWeight[1]) : 1);
+        }
+        this.slowPercent = Integer.parseInt(setting("slowPercent", "10"));
+        this.slowBatch = Integer.parseInt(setting("slowBatch", "64"));
+        this.slowPause = Duration.ofMillis(Long.parseLong(setting("slowPauseMillis", "5")));
+        this.format = setting("format", "json");
+        this.encoding = setting("encoding", "identity");
+        this.out = new File(setting("out", "load-results.json"));
+    }
+
+    private String setting(String key, String defaultValue) {
+        return this.settings.getOrDefault(key, defaultValue);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> settings = new LinkedHashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("expected key=value: " + arg);
+            }
+            settings.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        new LoadHarness(settings).run();
+    }
+
+    void run() throws IOException {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.register(ItemsConfiguration.class);
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("loadHarness",
+                Collections.singletonMap("items.compression", !"identity".equals(this.encoding))));
+        context.refresh();
+        HttpHandler handler = WebHttpHandlerBuilder.applicationContext(context).build();
+        NettyContext server = HttpServer.create(0)
+                .newHandler(new ReactorHttpHandlerAdapter(handler))
+                .block();
+        try {
+            // no automatic gzip, so that the inflater runs in front of the decoder
+            this.webClient = WebClient.builder()
+                    .clientConnector(new ReactorClientHttpConnector(options -> {
+                    }))
+                    .baseUrl("http://localhost:" + server.address().getPort())
+                    .build();
+
+            runRequests(this.warmupRequests);
+            this.sampler.start();
+            long start = System.nanoTime();
+            List<Result> results = runRequests(this.requests);
+            long nanos = System.nanoTime() - start;
+            this.sampler.stop();
+            report(results, nanos);
+        }
+        finally {
+            server.dispose();
+            context.close();
+        }
+    }
+
+    private List<Result> runRequests(int count) {
+        return Flux.range(0, count)
+                .flatMap(i -> request(nextItemCount(), this.random.nextInt(100) < this.slowPercent),
+                        this.clients)
+                .collectList()
+                .block();
+    }
+
+    private int nextItemCount() {
+        int weight = this.random.nextInt(this.cumulativeWeights[this.cumulativeWeights.length - 1]);
+        int i = 0;
+        while (weight >= this.cumulativeWeights[i]) {
+            i++;
+        }
+        return this.itemCounts[i];
+    }
+
+    private Mono<Result> request(int itemCount, boolean slow) {
+        return Mono.defer(() -> {
+            Result result = new Result(slow);
+            return this.webClient.get()
+                    .uri("/items/" + itemCount)
+                    .accept(mediaType())
+                    .header(HttpHeaders.ACCEPT_ENCODING, this.encoding)
+                    .exchange()
+                    .flatMapMany(response -> decode(response, result))
+                    .transform(items -> slow ? consumeSlowly(items) : items)
+                    .doOnNext(item -> result.item())
+                    .then(Mono.fromSupplier(result::complete))
+                    .onErrorResume(ex -> {
+                        result.error = ex;
+                        return Mono.just(result.complete());
+                    });
+        });
+    }
+
+    private MediaType mediaType() {
+        switch (this.format) {
+        case "ndjson":
+            return StreamingEnvelopeDecoder.APPLICATION_NDJSON;
+        case "smile":
+            return MediaType.valueOf("application/x-jackson-smile");
+        default:
+            return MediaType.APPLICATION_JSON;
+        }
+    }
+
+    private Flux<Item> decode(ClientResponse response, Result result) {
+        Flux<DataBuffer> body = response.body(BodyExtractors.toDataBuffers())
+                .doOnNext(dataBuffer -> result.bytes += dataBuffer.readableByteCount());
+        String contentEncoding = response.headers().asHttpHeaders()
+                .getFirst(HttpHeaders.CONTENT_ENCODING);
+        body = ContentInflater.inflate(body, contentEncoding, this.bufferFactory);
+        switch (this.format) {
+        case "ndjson":
+            return ItemsDecoder.transformLines(body, this.objectMapper);
+        case "smile":
+            return ItemsDecoder.transform(body, this.smileObjectMapper);
+        default:
+            return ItemsDecoder.transform(body, this.objectMapper);
+        }
+    }
+
+    private Flux<Item> consumeSlowly(Flux<Item> items) {
+        return items.buffer(this.slowBatch)
+                .concatMap(batch -> Mono.delay(this.slowPause).thenReturn(batch), 1)
+                .flatMapIterable(batch -> batch);
+    }
+
+    private void report(List<Result> results, long nanos) throws IOException {
+        long[] firstItem = results.stream()
+                .filter(result -> result.firstItemNanos >= 0)
+                .mapToLong(result -> result.firstItemNanos)
+                .toArray();
+        long[] completion = results.stream()
+                .filter(result -> !result.slow)
+                .mapToLong(result -> result.completionNanos)
+                .toArray();
+        long[] slowCompletion = results.stream()
+                .filter(result -> result.slow)
+                .mapToLong(result -> result.completionNanos)
+                .toArray();
+        List<Throwable> errors = new ArrayList<>();
+        results.stream().filter(result -> result.error != null)
+                .forEach(result -> errors.add(result.error));
+        long items = results.stream().mapToLong(result -> result.items).sum();
+        long bytes = results.stream().mapToLong(result -> result.bytes).sum();
+        double seconds = nanos / 1e9;
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("clients", this.clients);
+        config.put("requests", this.requests);
+        config.put("warmupRequests", this.warmupRequests);
+        config.put("itemCounts", setting("itemCounts", "20:90,10000:10"));
+        config.put("slowPercent", this.slowPercent);
+        config.put("slowBatch", this.slowBatch);
+        config.put("slowPauseMillis", this.slowPause.toMillis());
+        config.put("format", this.format);
+        config.put("encoding", this.encoding);
+        config.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        report.put("config", config);
+        report.put("durationSeconds", seconds);
+        report.put("firstItemMillis", percentiles(firstItem));
+        report.put("completionMillis", percentiles(completion));
+        report.put("slowCompletionMillis", percentiles(slowCompletion));
+        report.put("errors", errors.size());
+        if (!errors.isEmpty()) {
+            report.put("firstError", errors.get(0).toString());
+        }
+        report.put("itemsPerSecond", items / seconds);
+        report.put("megabytesPerSecond", bytes / seconds / (1024 * 1024));
+        report.put("bytesPerItem", items > 0 ? (double) bytes / items : 0.0);
+        report.put("maxHeapUsedBytes", this.sampler.maxHeapUsed);
+        report.put("maxDirectUsedBytes", this.sampler.maxDirectUsed);
+        report.put("maxNettyDirectUsedBytes", this.sampler.maxNettyDirectUsed);
+        report.put("eventLoopUtilization", this.sampler.eventLoopUtilization(nanos));
+
+        ObjectMapper writer = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        writer.writeValue(this.out, report);
+        System.out.println(writer.writeValueAsString(report));
+        System.out.println("written to " + this.out.getAbsolutePath());
+    }
+
+    private static Map<String, Double> percentiles(long[] nanos) {
+        Arrays.sort(nanos);
+        Map<String, Double> percentiles = new LinkedHashMap<>();
+        percentiles.put("p50", percentile(nanos, 0.5));
+        percentiles.put("p99", percentile(nanos, 0.99));
+        percentiles.put("p999", percentile(nanos, 0.999));
+        percentiles.put("max", percentile(nanos, 1.0));
+        return percentiles;
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0.0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * Timings of one request, updated on the thread that receives its items.
+     */
+    private static final class Result {
+
+        final boolean slow;
+        final long start = System.nanoTime();
+        long firstItemNanos = -1L;
+        long completionNanos;
+        long items;
+        long bytes;
+        Throwable error;
+
+        Result(boolean slow) {
+            this.slow = slow;
+        }
+
+        void item() {
+            if (this.items++ == 0) {
+                this.firstItemNanos = System.nanoTime() - this.start;
+            }
+        }
+
+        Result complete() {
+            this.completionNanos = System.nanoTime() - this.start;
+            return this;
+        }
+
+    }
+
+    /**
+     * Samples heap and direct memory use, and adds up the CPU time of the
+     * event loop threads.
+     */
+    private static final class Sampler {
+
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private final ScheduledExecutorService executor = Executors
+                .newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "load-sampler");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        private final Map<Long, Long> startCpuNanos = new LinkedHashMap<>();
+        private final Map<Long, Long> endCpuNanos = new LinkedHashMap<>();
+
+        volatile long maxHeapUsed;
+        volatile long maxDirectUsed;
+        volatile long maxNettyDirectUsed = -1L;
+
+        void start() {
+            cpuTimes(this.startCpuNanos);
+            this.executor.scheduleAtFixedRate(this::sample, 0, 100, TimeUnit.MILLISECONDS);
+        }
+
+        void stop() {
+            this.executor.shutdownNow();
+            cpuTimes(this.endCpuNanos);
+            sample();
+        }
+
+        private void sample() {
+            this.maxHeapUsed = Math.max(this.maxHeapUsed,
+                    ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+            for (BufferPoolMXBean pool : ManagementFactory
+                    .getPlatformMXBeans(BufferPoolMXBean.class)) {
+                if ("direct".equals(pool.getName())) {
+                    this.maxDirectUsed = Math.max(this.maxDirectUsed, pool.getMemoryUsed());
+                }
+            }
+            if (ByteBufAllocator.DEFAULT instanceof ByteBufAllocatorMetricProvider) {
+                long used = ((ByteBufAllocatorMetricProvider) ByteBufAllocator.DEFAULT).metric()
+                        .usedDirectMemory();
+                this.maxNettyDirectUsed = Math.max(this.maxNettyDirectUsed, used);
+            }
+        }
+
+        private void cpuTimes(Map<Long, Long> cpuNanos) {
+            for (ThreadInfo info : this.threads.getThreadInfo(this.threads.getAllThreadIds())) {
+                if (info != null && info.getThreadName().startsWith("reactor-http-")) {
+                    cpuNanos.put(info.getThreadId(), this.threads.getThreadCpuTime(info.getThreadId()));
+                }
+            }
+        }
+
+        /**
+         * The busy share of each event loop thread, by thread id.
+         */
+        List<Double> eventLoopUtilization(long wallNanos) {
+            List<Double> utilization = new ArrayList<>();
+            for (Map.Entry<Long, Long> entry : this.endCpuNanos.entrySet()) {
+                long start = this.startCpuNanos.getOrDefault(entry.getKey(), 0L);
+                utilization.add((double) (entry.getValue() - start) / wallNanos);
+            }
+            return utilization;
+        }
+
+    }
+
+}
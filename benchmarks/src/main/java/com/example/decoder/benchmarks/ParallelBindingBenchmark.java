@@ -0,0 +1,91 @@
+package com.example.decoder.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import com.example.decoder.StreamingEnvelopeDecoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Decode throughput per element with binding on the receiving thread and on
+ * a parallel scheduler, over growing element sizes, to find where parallel
+ * binding starts to pay off. Chunks are handed over on a single thread, like
+ * an event loop would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelBindingBenchmark {
+
+    static final int ITEM_COUNT = 2000;
+
+    @Param({ "0", "256", "4096" })
+    public int payloadSize;
+
+    @Param({ "0", "3" })
+    public int nesting;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+    private Chunks envelope;
+    private StreamingEnvelopeDecoder<BenchItem> sequentialDecoder;
+    private StreamingEnvelopeDecoder<BenchItem> parallelDecoder;
+
+    @Setup
+    public void setup() throws Exception {
+        List<BenchItem> items = new ArrayList<>(ITEM_COUNT);
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            items.add(BenchItem.create(this.payloadSize, this.nesting));
+        }
+        String json = "{\"items\":" + this.objectMapper.writeValueAsString(items) + "}";
+        this.envelope = new Chunks(json.getBytes("UTF-8"), "8192-8192");
+
+        this.sequentialDecoder = new StreamingEnvelopeDecoder<>(this.objectMapper, BenchItem.class);
+        this.parallelDecoder = new StreamingEnvelopeDecoder<>(this.objectMapper, BenchItem.class);
+        this.parallelDecoder.setBindingScheduler(Schedulers.parallel(),
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEM_COUNT)
+    public void sequential(Blackhole bh) {
+        decode(this.sequentialDecoder, bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEM_COUNT)
+    public void parallel(Blackhole bh) {
+        decode(this.parallelDecoder, bh);
+    }
+
+    private void decode(StreamingEnvelopeDecoder<BenchItem> decoder, Blackhole bh) {
+        decoder.decode(this.envelope.toDataBuffers(this.bufferFactory)
+                .subscribeOn(Schedulers.single()))
+                .doOnNext(bh::consume)
+                .blockLast();
+    }
+
+}
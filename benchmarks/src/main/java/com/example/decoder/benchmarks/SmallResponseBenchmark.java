@@ -0,0 +1,89 @@
+package com.example.decoder.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+
+import com.example.decoder.Item;
+import com.example.decoder.ItemBinder;
+import com.example.decoder.ItemsDecoder;
+import com.example.decoder.StreamingEnvelopeDecoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Time per response for many small responses, where the setup of each
+ * decode is not negligible next to the parsing. {@code transform} goes
+ * through {@link ItemsDecoder#transform}, {@code sharedCodec} reuses one
+ * configured {@link StreamingEnvelopeDecoder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SmallResponseBenchmark {
+
+    @Param({ "1", "20", "200" })
+    public int itemCount;
+
+    @Param({ "heap", "pooled" })
+    public String buffers;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private DataBufferFactory bufferFactory;
+    private Chunks envelope;
+    private StreamingEnvelopeDecoder<Item> codec;
+
+    @Setup
+    public void setup() throws Exception {
+        this.bufferFactory = "pooled".equals(this.buffers)
+                ? new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT)
+                : new DefaultDataBufferFactory();
+
+        List<Item> items = new ArrayList<>(this.itemCount);
+        for (int i = 0; i < this.itemCount; i++) {
+            items.add(new Item(UUID.randomUUID().toString()));
+        }
+        String json = "{\"items\":" + this.objectMapper.writeValueAsString(items) + "}";
+        this.envelope = new Chunks(json.getBytes("UTF-8"), "512-2048");
+
+        this.codec = new StreamingEnvelopeDecoder<>(this.objectMapper, Item.class);
+        this.codec.setEntityBinder(new ItemBinder());
+    }
+
+    @Benchmark
+    public void transform(Blackhole bh) {
+        ItemsDecoder.transform(this.envelope.toDataBuffers(this.bufferFactory), this.objectMapper)
+                .doOnNext(bh::consume)
+                .blockLast();
+    }
+
+    @Benchmark
+    public void sharedCodec(Blackhole bh) {
+        this.codec.decode(this.envelope.toDataBuffers(this.bufferFactory))
+                .doOnNext(bh::consume)
+                .blockLast();
+    }
+
+}
@@ -0,0 +1,227 @@
+package com.example.decoder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Blocking view of decoded entities for consumers that process them on
+ * their own thread, e.g. one thread per response that writes the items to a
+ * database.
+ * <p>
+ * At most {@code capacity} entities are requested ahead of the consumer;
+ * more are requested as it takes them, so a slow consumer stops the decoder
+ * and, through it, the reads from the connection. The thread that emits the
+ * entities never blocks. The consumer waits on a {@link ReentrantLock}
+ * rather than a monitor, so a virtual thread waiting for entities doesn't
+ * hold on to its carrier thread.
+ * <p>
+ * The source is subscribed to on the first call to {@link #hasNext()}.
+ * Consumers that stop early must {@link #close()} the iterator, which
+ * cancels the source. An error of the source is thrown by {@link #hasNext()}
+ * once the entities before it have been taken.
+ */
+public final class BlockingEntityIterator<T> implements Iterator<T>, AutoCloseable {
+
+    private final Publisher<? extends T> source;
+    private final int capacity;
+    private final int replenishCount;
+
+    // the queue and the terminal state are guarded by the lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = this.lock.newCondition();
+    private final Queue<T> queue;
+    private boolean done;
+    private Throwable error;
+
+    private volatile Subscription subscription;
+    private volatile boolean closed;
+
+    // only accessed by the consumer
+    private boolean subscribed;
+    private int consumed;
+    private T next;
+
+    /**
+     * @param capacity how many entities to request ahead of the consumer
+     */
+    public BlockingEntityIterator(Publisher<? extends T> source, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.source = source;
+        this.capacity = capacity;
+        // request in batches rather than one by one, before the queue runs dry
+        this.replenishCount = Math.max(1, capacity - (capacity >> 2));
+        this.queue = new ArrayDeque<>(capacity);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (this.next != null) {
+            return true;
+        }
+        if (this.closed) {
+            return false;
+        }
+        if (!this.subscribed) {
+            this.subscribed = true;
+            this.source.subscribe(new HandOff());
+        }
+        T entity;
+        this.lock.lock();
+        try {
+            while ((entity = this.queue.poll()) == null && !this.done && !this.closed) {
+                this.notEmpty.await();
+            }
+        } catch (InterruptedException ex) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for entities", ex);
+        } finally {
+            this.lock.unlock();
+        }
+        if (entity == null) {
+            return failOrEnd();
+        }
+        this.next = entity;
+        if (++this.consumed == this.replenishCount) {
+            this.consumed = 0;
+            this.subscription.request(this.replenishCount);
+        }
+        return true;
+    }
+
+    private boolean failOrEnd() {
+        Throwable ex = this.error;
+        if (ex == null || this.closed) {
+            return false;
+        }
+        // thrown only once, the iterator is exhausted afterwards
+        this.error = null;
+        this.closed = true;
+        if (ex instanceof RuntimeException) {
+            throw (RuntimeException) ex;
+        }
+        if (ex instanceof Error) {
+            throw (Error) ex;
+        }
+        if (ex instanceof IOException) {
+            throw new UncheckedIOException((IOException) ex);
+        }
+        throw new IllegalStateException(ex);
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T entity = this.next;
+        this.next = null;
+        return entity;
+    }
+
+    /**
+     * Cancels the source, if it hasn't completed yet, and drops the entities
+     * that have not been taken. A consumer waiting in {@link #hasNext()} on
+     * another thread returns {@code false}.
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.next = null;
+        Subscription s = this.subscription;
+        if (s != null) {
+            s.cancel();
+        }
+        this.lock.lock();
+        try {
+            this.queue.clear();
+            // a cancelled source doesn't terminate, so wake up a waiting consumer here
+            this.done = true;
+            this.notEmpty.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a sequential stream of the remaining entities, which closes
+     * this iterator when it is closed.
+     */
+    public Stream<T> stream() {
+        Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    private final class HandOff implements Subscriber<T> {
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            BlockingEntityIterator<T> iterator = BlockingEntityIterator.this;
+            iterator.subscription = s;
+            if (iterator.closed) {
+                s.cancel();
+                return;
+            }
+            s.request(iterator.capacity);
+        }
+
+        @Override
+        public void onNext(T entity) {
+            BlockingEntityIterator<T> iterator = BlockingEntityIterator.this;
+            iterator.lock.lock();
+            try {
+                if (!iterator.closed) {
+                    // never more than requested, so this doesn't exceed the capacity
+                    iterator.queue.offer(entity);
+                    iterator.notEmpty.signal();
+                }
+            } finally {
+                iterator.lock.unlock();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            terminate(t);
+        }
+
+        @Override
+        public void onComplete() {
+            terminate(null);
+        }
+
+        private void terminate(Throwable t) {
+            BlockingEntityIterator<T> iterator = BlockingEntityIterator.this;
+            iterator.lock.lock();
+            try {
+                iterator.error = t;
+                iterator.done = true;
+                iterator.notEmpty.signal();
+            } finally {
+                iterator.lock.unlock();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,256 @@
+package com.example.decoder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * Like {@link Item}, but keeps the uuid in two {@code long}s instead of a
+ * string. It has the same JSON form, <code>{"uuid":"..."}</code>, but the
+ * uuid is parsed from and written to the parser and generator buffers
+ * without creating strings. Only the canonical 36 character form of a uuid
+ * is accepted.
+ */
+@JsonSerialize(using = CompactItem.Serializer.class)
+@JsonDeserialize(using = CompactItem.Deserializer.class)
+public class CompactItem {
+
+    static final int UUID_LENGTH = 36;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 16; i++) {
+            HEX_VALUES[HEX_DIGITS[i]] = (byte) i;
+            HEX_VALUES[Character.toUpperCase(HEX_DIGITS[i])] = (byte) i;
+        }
+    }
+
+    private static final ThreadLocal<char[]> charBuffer = ThreadLocal
+            .withInitial(() -> new char[UUID_LENGTH]);
+
+    private long mostSigBits;
+    private long leastSigBits;
+
+    public CompactItem() {
+    }
+
+    public CompactItem(long mostSigBits, long leastSigBits) {
+        this.mostSigBits = mostSigBits;
+        this.leastSigBits = leastSigBits;
+    }
+
+    /**
+     * Creates the item at the given position of a pseudo-random sequence, so
+     * any part of the sequence can be generated again from its seed. The
+     * uuid has the form of a random (version 4) uuid.
+     */
+    public static CompactItem seeded(long seed, long index) {
+        long mostSigBits = mix(seed + (2 * index + 1) * GOLDEN_GAMMA);
+        long leastSigBits = mix(seed + (2 * index + 2) * GOLDEN_GAMMA);
+        return new CompactItem((mostSigBits & ~0xf000L) | 0x4000L,
+                (leastSigBits & ~(0xc0L << 56)) | (0x80L << 56));
+    }
+
+    /**
+     * The SplitMix64 finalizer, as used by {@link java.util.SplittableRandom}.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    public static CompactItem of(Item item) {
+        UUID uuid = UUID.fromString(item.getUuid());
+        return new CompactItem(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    public long getMostSigBits() {
+        return this.mostSigBits;
+    }
+
+    public long getLeastSigBits() {
+        return this.leastSigBits;
+    }
+
+    public String getUuid() {
+        char[] chars = new char[UUID_LENGTH];
+        writeUuid(chars);
+        return new String(chars);
+    }
+
+    public Item toItem() {
+        return new Item(getUuid());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof CompactItem)) {
+            return false;
+        }
+        CompactItem other = (CompactItem) obj;
+        return this.mostSigBits == other.mostSigBits && this.leastSigBits == other.leastSigBits;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(this.mostSigBits) * 31 + Long.hashCode(this.leastSigBits);
+    }
+
+    @Override
+    public String toString() {
+        return "CompactItem(uuid=" + getUuid() + ")";
+    }
+
+    void clear() {
+        this.mostSigBits = 0L;
+        this.leastSigBits = 0L;
+    }
+
+    /**
+     * Reads the uuid from the string value the parser currently points at.
+     *
+     * @return {@code false} if the value is not a uuid in canonical form
+     */
+    boolean readUuid(JsonParser parser) throws IOException {
+        if (parser.getTextLength() != UUID_LENGTH) {
+            return false;
+        }
+        char[] chars = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        if (chars[offset + 8] != '-' || chars[offset + 13] != '-' || chars[offset + 18] != '-'
+                || chars[offset + 23] != '-') {
+            return false;
+        }
+
+        long group1 = parseHex(chars, offset, 8);
+        long group2 = parseHex(chars, offset + 9, 4);
+        long group3 = parseHex(chars, offset + 14, 4);
+        long group4 = parseHex(chars, offset + 19, 4);
+        long group5 = parseHex(chars, offset + 24, 12);
+        if ((group1 | group2 | group3 | group4 | group5) < 0L) {
+            return false;
+        }
+
+        this.mostSigBits = (group1 << 32) | (group2 << 16) | group3;
+        this.leastSigBits = (group4 << 48) | group5;
+        return true;
+    }
+
+    void writeUuid(JsonGenerator generator) throws IOException {
+        char[] chars = charBuffer.get();
+        writeUuid(chars);
+        generator.writeString(chars, 0, UUID_LENGTH);
+    }
+
+    private void writeUuid(char[] chars) {
+        writeHex(this.mostSigBits >>> 32, chars, 0, 8);
+        chars[8] = '-';
+        writeHex(this.mostSigBits >>> 16, chars, 9, 4);
+        chars[13] = '-';
+        writeHex(this.mostSigBits, chars, 14, 4);
+        chars[18] = '-';
+        writeHex(this.leastSigBits >>> 48, chars, 19, 4);
+        chars[23] = '-';
+        writeHex(this.leastSigBits, chars, 24, 12);
+    }
+
+    /**
+     * @return the value, or -1 if there is a character that isn't a hex digit
+     */
+    private static long parseHex(char[] chars, int offset, int length) {
+        long value = 0L;
+        for (int i = offset; i < offset + length; i++) {
+            char c = chars[i];
+            int digit = c < 128 ? HEX_VALUES[c] : -1;
+            if (digit < 0) {
+                return -1L;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private static void writeHex(long value, char[] chars, int offset, int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            chars[i] = HEX_DIGITS[(int) value & 0xf];
+            value >>>= 4;
+        }
+    }
+
+    static class Serializer extends StdSerializer<CompactItem> {
+
+        private static final long serialVersionUID = 1L;
+
+        Serializer() {
+            super(CompactItem.class);
+        }
+
+        @Override
+        public void serialize(CompactItem value, JsonGenerator generator,
+                SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            generator.writeFieldName("uuid");
+            value.writeUuid(generator);
+            generator.writeEndObject();
+        }
+
+    }
+
+    static class Deserializer extends StdDeserializer<CompactItem> {
+
+        private static final long serialVersionUID = 1L;
+
+        Deserializer() {
+            super(CompactItem.class);
+        }
+
+        @Override
+        public CompactItem deserialize(JsonParser parser, DeserializationContext context)
+                throws IOException {
+            JsonToken token = parser.getCurrentToken();
+            if (token == JsonToken.START_OBJECT) {
+                token = parser.nextToken();
+            }
+
+            CompactItem item = new CompactItem();
+            for (; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if (!"uuid".equals(name)) {
+                    context.handleUnknownProperty(parser, this, CompactItem.class, name);
+                }
+                else if (parser.getCurrentToken() != JsonToken.VALUE_STRING
+                        || !item.readUuid(parser)) {
+                    return (CompactItem) context.handleWeirdStringValue(CompactItem.class,
+                            parser.getText(), "not a uuid in canonical form");
+                }
+            }
+            if (token != JsonToken.END_OBJECT) {
+                return (CompactItem) context.handleUnexpectedToken(CompactItem.class, parser);
+            }
+            return item;
+        }
+
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.example.decoder;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+public class CompactItemBinder implements FlatEntityBinder<CompactItem> {
+
+    @Override
+    public CompactItem create() {
+        return new CompactItem();
+    }
+
+    @Override
+    public boolean bindField(CompactItem target, String name, JsonParser parser)
+            throws IOException {
+        return "uuid".equals(name) && parser.getCurrentToken() == JsonToken.VALUE_STRING
+                && target.readUuid(parser);
+    }
+
+    @Override
+    public void replay(CompactItem target, JsonGenerator generator) throws IOException {
+        // a missing uuid reads as the nil uuid, so that one needn't be replayed
+        if (target.getMostSigBits() != 0L || target.getLeastSigBits() != 0L) {
+            generator.writeFieldName("uuid");
+            target.writeUuid(generator);
+        }
+    }
+
+}
@@ -0,0 +1,288 @@
+package com.example.decoder;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.lang.Nullable;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ * Inflates a {@code gzip} or {@code deflate} (zlib) encoded body chunk by
+ * chunk, to be placed in front of a decoder:
+ *
+ * <pre class="code">
+ * ItemsDecoder.transform(ContentInflater.inflate(body, contentEncoding, bufferFactory), objectMapper)
+ * </pre>
+ *
+ * {@link Inflater}s are pooled, since each one holds native memory that is
+ * costly to set up per response.
+ */
+public final class ContentInflater {
+
+    private static final int MAX_POOLED = 16;
+
+    private static final int GZIP_HEADER_SIZE = 10;
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private static final BlockingQueue<Inflater> gzipInflaters = new ArrayBlockingQueue<>(
+            MAX_POOLED);
+
+    private static final BlockingQueue<Inflater> zlibInflaters = new ArrayBlockingQueue<>(
+            MAX_POOLED);
+
+    private final boolean gzip;
+    private final Inflater inflater;
+    private final DataBufferFactory bufferFactory;
+    private final CRC32 crc = new CRC32();
+    private final byte[] scratch = new byte[8192];
+    private byte[] input = new byte[0];
+
+    // gzip header and trailer bytes, which may be split across chunks
+    private byte[] frame = new byte[GZIP_HEADER_SIZE];
+    private int frameLength;
+
+    private Stage stage;
+
+    private ContentInflater(boolean gzip, DataBufferFactory bufferFactory) {
+        this.gzip = gzip;
+        Inflater inflater = (gzip ? gzipInflaters : zlibInflaters).poll();
+        this.inflater = inflater != null ? inflater : new Inflater(gzip);
+        this.bufferFactory = bufferFactory;
+        this.stage = gzip ? Stage.HEADER : Stage.BODY;
+    }
+
+    /**
+     * Inflates the body according to its {@code Content-Encoding}. Input
+     * buffers are released once they have been inflated. A body that ends
+     * before the compressed stream is complete fails with an
+     * {@link EOFException}.
+     *
+     * @param contentEncoding {@code gzip}, {@code deflate}, or {@code null}
+     *        or {@code identity} for a body that is not compressed
+     */
+    public static Flux<DataBuffer> inflate(Flux<DataBuffer> dataBuffers,
+            @Nullable String contentEncoding, DataBufferFactory bufferFactory) {
+        if (contentEncoding == null || "identity".equalsIgnoreCase(contentEncoding)) {
+            return dataBuffers;
+        }
+        boolean gzip = "gzip".equalsIgnoreCase(contentEncoding);
+        if (!gzip && !"deflate".equalsIgnoreCase(contentEncoding)) {
+            return Flux.error(new IllegalStateException(
+                    "unsupported content encoding: " + contentEncoding));
+        }
+        return Flux.defer(() -> {
+            ContentInflater inflater = new ContentInflater(gzip, bufferFactory);
+            return dataBuffers.<DataBuffer> handle((dataBuffer, sink) -> {
+                DataBuffer output = inflater.inflate(dataBuffer);
+                if (output != null) {
+                    sink.next(output);
+                }
+            }).concatWith(Mono.defer(inflater::checkFinished))
+                    .doFinally(signal -> inflater.release(signal != SignalType.CANCEL));
+        });
+    }
+
+    /**
+     * @return the inflated bytes, or {@code null} if the chunk didn't yield
+     *         any
+     */
+    @Nullable
+    private DataBuffer inflate(DataBuffer dataBuffer) {
+        DataBuffer output = null;
+        try {
+            ByteBuffer byteBuffer = dataBuffer.asByteBuffer();
+            int length = byteBuffer.remaining();
+            byte[] bytes;
+            int offset;
+            if (byteBuffer.hasArray()) {
+                bytes = byteBuffer.array();
+                offset = byteBuffer.arrayOffset() + byteBuffer.position();
+            }
+            else {
+                if (this.input.length < length) {
+                    this.input = new byte[Math.max(length, 2 * this.input.length)];
+                }
+                byteBuffer.get(this.input, 0, length);
+                bytes = this.input;
+                offset = 0;
+            }
+
+            int end = offset + length;
+            while (offset < end) {
+                switch (this.stage) {
+                case HEADER:
+                    offset = readHeader(bytes, offset, end);
+                    break;
+                case BODY:
+                    this.inflater.setInput(bytes, offset, end - offset);
+                    output = inflateInput(output);
+                    offset = end - this.inflater.getRemaining();
+                    if (this.inflater.finished()) {
+                        this.stage = this.gzip ? Stage.TRAILER : Stage.FINISHED;
+                    }
+                    break;
+                case TRAILER:
+                    offset = readTrailer(bytes, offset, end);
+                    break;
+                default:
+                    throw new IllegalStateException("unexpected data after compressed stream");
+                }
+            }
+            return output;
+        } catch (DataFormatException ex) {
+            DataBufferUtils.release(output);
+            throw new IllegalStateException("invalid compressed data: " + ex.getMessage(), ex);
+        } catch (RuntimeException ex) {
+            DataBufferUtils.release(output);
+            throw ex;
+        } finally {
+            DataBufferUtils.release(dataBuffer);
+        }
+    }
+
+    private DataBuffer inflateInput(@Nullable DataBuffer output) throws DataFormatException {
+        int count;
+        while ((count = this.inflater.inflate(this.scratch)) > 0) {
+            if (output == null) {
+                output = this.bufferFactory.allocateBuffer(Math.max(count, this.scratch.length));
+            }
+            output.write(this.scratch, 0, count);
+            if (this.gzip) {
+                this.crc.update(this.scratch, 0, count);
+            }
+        }
+        if (this.inflater.needsDictionary()) {
+            throw new DataFormatException("preset dictionary not supported");
+        }
+        return output;
+    }
+
+    private int readHeader(byte[] bytes, int offset, int end) {
+        while (offset < end) {
+            appendFrame(bytes[offset++]);
+            int headerSize = gzipHeaderSize();
+            if (headerSize == this.frameLength) {
+                this.frameLength = 0;
+                this.stage = Stage.BODY;
+                break;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * @return the size of the buffered gzip header, or -1 if it is
+     *         incomplete
+     */
+    private int gzipHeaderSize() {
+        byte[] header = this.frame;
+        int length = this.frameLength;
+        if ((length >= 1 && header[0] != 0x1f) || (length >= 2 && header[1] != (byte) 0x8b)
+                || (length >= 3 && header[2] != 8)) {
+            throw new IllegalStateException("invalid gzip header");
+        }
+        if (length < GZIP_HEADER_SIZE) {
+            return -1;
+        }
+
+        int flags = header[3];
+        int size = GZIP_HEADER_SIZE;
+        if ((flags & FEXTRA) != 0) {
+            if (length < size + 2) {
+                return -1;
+            }
+            size += 2 + ((header[size] & 0xff) | (header[size + 1] & 0xff) << 8);
+        }
+        if ((flags & FNAME) != 0) {
+            size = skipZeroTerminated(size);
+        }
+        if ((flags & FCOMMENT) != 0 && size >= 0) {
+            size = skipZeroTerminated(size);
+        }
+        if ((flags & FHCRC) != 0 && size >= 0) {
+            size += 2;
+        }
+        return size <= length ? size : -1;
+    }
+
+    private int skipZeroTerminated(int offset) {
+        for (int i = offset; i < this.frameLength; i++) {
+            if (this.frame[i] == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private int readTrailer(byte[] bytes, int offset, int end) {
+        while (offset < end && this.frameLength < GZIP_TRAILER_SIZE) {
+            appendFrame(bytes[offset++]);
+        }
+        if (this.frameLength == GZIP_TRAILER_SIZE) {
+            if (readIntLE(0) != (int) this.crc.getValue()
+                    || readIntLE(4) != (int) this.inflater.getBytesWritten()) {
+                throw new IllegalStateException("corrupt gzip stream");
+            }
+            this.stage = Stage.FINISHED;
+        }
+        return offset;
+    }
+
+    private void appendFrame(byte b) {
+        if (this.frameLength == this.frame.length) {
+            this.frame = Arrays.copyOf(this.frame, 2 * this.frame.length);
+        }
+        this.frame[this.frameLength++] = b;
+    }
+
+    private int readIntLE(int offset) {
+        return (this.frame[offset] & 0xff) | (this.frame[offset + 1] & 0xff) << 8
+                | (this.frame[offset + 2] & 0xff) << 16 | (this.frame[offset + 3] & 0xff) << 24;
+    }
+
+    private Mono<DataBuffer> checkFinished() {
+        if (this.stage != Stage.FINISHED) {
+            return Mono.error(new EOFException("unexpected end of compressed stream"));
+        }
+        return Mono.empty();
+    }
+
+    /**
+     * @param reusable whether no chunk can be inflated anymore; after a cancel
+     *        a chunk may still be inflated on the emitting thread, so the
+     *        inflater is ended rather than handed to another response
+     */
+    private void release(boolean reusable) {
+        if (!reusable) {
+            // waits for a running inflate, later calls fail and release their buffers
+            this.inflater.end();
+            return;
+        }
+        this.inflater.reset();
+        if (!(this.gzip ? gzipInflaters : zlibInflaters).offer(this.inflater)) {
+            this.inflater.end();
+        }
+    }
+
+    private enum Stage {
+        HEADER, BODY, TRAILER, FINISHED
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.example.decoder;
+
+import com.example.decoder.DecoderLimits.Limit;
+
+/**
+ * Thrown when the input exceeds one of the {@link DecoderLimits}.
+ */
+public class DecoderLimitException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Limit limit;
+    private final long maxValue;
+
+    public DecoderLimitException(Limit limit, long maxValue) {
+        super("Decoder limit exceeded: " + limit + " > " + maxValue);
+        this.limit = limit;
+        this.maxValue = maxValue;
+    }
+
+    public Limit getLimit() {
+        return this.limit;
+    }
+
+    public long getMaxValue() {
+        return this.maxValue;
+    }
+
+}
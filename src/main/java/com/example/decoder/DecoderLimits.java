@@ -0,0 +1,85 @@
+package com.example.decoder;
+
+/**
+ * Limits that protect a decoder against oversized or hostile input. Input
+ * that exceeds a limit fails the stream with a {@link DecoderLimitException}.
+ * <p>
+ * Limits are immutable; each {@code with...} method returns a copy. Checks
+ * are skipped entirely while all limits are unset, as in {@link #NONE}.
+ */
+public final class DecoderLimits {
+
+    public static final DecoderLimits NONE = new DecoderLimits(Long.MAX_VALUE, Integer.MAX_VALUE,
+            Long.MAX_VALUE, Long.MAX_VALUE);
+
+    private final long maxEntityBytes;
+    private final int maxDepth;
+    private final long maxItems;
+    private final long maxBufferedBytes;
+
+    private DecoderLimits(long maxEntityBytes, int maxDepth, long maxItems,
+            long maxBufferedBytes) {
+        this.maxEntityBytes = maxEntityBytes;
+        this.maxDepth = maxDepth;
+        this.maxItems = maxItems;
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    /**
+     * The maximum encoded size of a single item or error object.
+     */
+    public DecoderLimits withMaxEntityBytes(long maxEntityBytes) {
+        return new DecoderLimits(maxEntityBytes, this.maxDepth, this.maxItems,
+                this.maxBufferedBytes);
+    }
+
+    /**
+     * The maximum nesting of objects and arrays, counting the envelope.
+     */
+    public DecoderLimits withMaxDepth(int maxDepth) {
+        return new DecoderLimits(this.maxEntityBytes, maxDepth, this.maxItems,
+                this.maxBufferedBytes);
+    }
+
+    /**
+     * The maximum number of items in one envelope.
+     */
+    public DecoderLimits withMaxItems(long maxItems) {
+        return new DecoderLimits(this.maxEntityBytes, this.maxDepth, maxItems,
+                this.maxBufferedBytes);
+    }
+
+    /**
+     * The maximum number of input bytes the decoder holds at a time.
+     */
+    public DecoderLimits withMaxBufferedBytes(long maxBufferedBytes) {
+        return new DecoderLimits(this.maxEntityBytes, this.maxDepth, this.maxItems,
+                maxBufferedBytes);
+    }
+
+    public long getMaxEntityBytes() {
+        return this.maxEntityBytes;
+    }
+
+    public int getMaxDepth() {
+        return this.maxDepth;
+    }
+
+    public long getMaxItems() {
+        return this.maxItems;
+    }
+
+    public long getMaxBufferedBytes() {
+        return this.maxBufferedBytes;
+    }
+
+    boolean isEnabled() {
+        return this.maxEntityBytes != Long.MAX_VALUE || this.maxDepth != Integer.MAX_VALUE
+                || this.maxItems != Long.MAX_VALUE || this.maxBufferedBytes != Long.MAX_VALUE;
+    }
+
+    public enum Limit {
+        ENTITY_BYTES, DEPTH, ITEMS, BUFFERED_BYTES
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.example.decoder;
+
+/**
+ * Listener for what an {@link ItemsDecoder} does with its input.
+ * <p>
+ * The decoder only takes timestamps and byte offsets when a listener other
+ * than {@link #NONE} is set, so the default costs nothing on the hot path.
+ * Callbacks run on the decoding thread and should not block.
+ */
+public interface DecoderMetrics {
+
+    DecoderMetrics NONE = new DecoderMetrics() {
+    };
+
+    /**
+     * Called when the parser has consumed a chunk of input.
+     *
+     * @param bytes the size of the chunk
+     * @param items the number of entities completed in this chunk
+     * @param parseNanos the time spent parsing this chunk
+     */
+    default void chunkDecoded(int bytes, int items, long parseNanos) {
+    }
+
+    /**
+     * Called for every entity, with its encoded size including nested
+     * content.
+     */
+    default void itemDecoded(long bytes) {
+    }
+
+}
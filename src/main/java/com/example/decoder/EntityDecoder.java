@@ -0,0 +1,44 @@
+package com.example.decoder;
+
+import java.io.IOException;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+/**
+ * Incremental decoder driven by {@link ItemsDecoderSubscriber}.
+ */
+interface EntityDecoder<T> {
+
+    /**
+     * Hands the next chunk to the decoder, which owns the buffer from now on.
+     */
+    void feed(DataBuffer dataBuffer) throws IOException;
+
+    void endOfInput();
+
+    boolean isInputEnded();
+
+    /**
+     * @return the next entity, or {@code null} if more input is needed (or
+     *         input has ended)
+     */
+    T next() throws IOException;
+
+    /**
+     * Checks the input after it has ended and all entities have been taken.
+     */
+    void finish();
+
+    /**
+     * Releases an entity that was taken from {@link #next()} but is not
+     * emitted, because the stream was cancelled or failed meanwhile.
+     */
+    default void discard(T entity) {
+    }
+
+    /**
+     * Releases everything the decoder holds on to.
+     */
+    void dispose();
+
+}
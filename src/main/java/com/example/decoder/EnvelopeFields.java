@@ -0,0 +1,63 @@
+package com.example.decoder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+/**
+ * Captures selected envelope fields next to the elements, e.g. paging
+ * information, see {@link StreamingEnvelopeDecoder#decode(org.reactivestreams.Publisher, EnvelopeFields)}.
+ * Captured fields should be small, since each value is read into a tree.
+ * <p>
+ * An instance is meant for a single decoded envelope.
+ */
+public class EnvelopeFields {
+
+    private final Set<String> names;
+    private final Map<String, JsonNode> values = new LinkedHashMap<>();
+    private final MonoProcessor<Map<String, JsonNode>> result = MonoProcessor.create();
+    private boolean done;
+
+    public EnvelopeFields(String... names) {
+        this.names = new HashSet<>(Arrays.asList(names));
+    }
+
+    /**
+     * The captured fields by name, emitted when the end of the envelope has
+     * been parsed. Completes empty if the envelope is not read completely.
+     */
+    public Mono<Map<String, JsonNode>> get() {
+        return this.result;
+    }
+
+    boolean isCaptured(String name) {
+        return this.names.contains(name);
+    }
+
+    void capture(String name, JsonNode value) {
+        this.values.put(name, value);
+    }
+
+    void complete() {
+        if (!this.done) {
+            this.done = true;
+            this.result.onNext(Collections.unmodifiableMap(this.values));
+        }
+    }
+
+    void cancel() {
+        if (!this.done) {
+            this.done = true;
+            this.result.onComplete();
+        }
+    }
+
+}
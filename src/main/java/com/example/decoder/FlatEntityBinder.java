@@ -0,0 +1,32 @@
+package com.example.decoder;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * Binds a flat JSON object straight from the tokens of the streaming parser,
+ * without buffering them first.
+ * <p>
+ * A binder only needs to handle the shape it knows; as soon as it rejects a
+ * field, the decoder replays the fields bound so far and continues with the
+ * generic {@code TokenBuffer} route for that entity.
+ */
+public interface FlatEntityBinder<T> {
+
+    T create();
+
+    /**
+     * Binds the scalar value the parser currently points at.
+     *
+     * @return {@code false} if the field or value can't be bound directly
+     */
+    boolean bindField(T target, String name, JsonParser parser) throws IOException;
+
+    /**
+     * Writes the fields bound so far, without the enclosing object.
+     */
+    void replay(T target, JsonGenerator generator) throws IOException;
+
+}
@@ -0,0 +1,35 @@
+package com.example.decoder;
+
+/**
+ * Reports input that ended before the envelope was complete, e.g. because
+ * the connection was closed early. The counts tell how far decoding got, so
+ * a client can resume from the next item.
+ */
+public class IncompleteEnvelopeException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long itemCount;
+    private final long byteCount;
+
+    public IncompleteEnvelopeException(long itemCount, long byteCount, Throwable cause) {
+        super("incomplete JSON input", cause);
+        this.itemCount = itemCount;
+        this.byteCount = byteCount;
+    }
+
+    /**
+     * Returns the number of items that were decoded completely.
+     */
+    public long getItemCount() {
+        return this.itemCount;
+    }
+
+    /**
+     * Returns the number of input bytes that were consumed.
+     */
+    public long getByteCount() {
+        return this.byteCount;
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.example.decoder;
+
+/**
+ * Up to {@link ItemBatchPool#getBatchSize()} items in columnar form, with the
+ * uuid halves held in primitive arrays.
+ * <p>
+ * Batches come from an {@link ItemBatchPool}; call {@link #release()} when
+ * done with a batch so that it can be filled again. A released batch must not
+ * be used any more.
+ */
+public final class ItemBatch {
+
+    private final ItemBatchPool pool;
+    private final long[] mostSigBits;
+    private final long[] leastSigBits;
+    private int size;
+    private boolean released;
+
+    ItemBatch(ItemBatchPool pool, int capacity) {
+        this.pool = pool;
+        this.mostSigBits = new long[capacity];
+        this.leastSigBits = new long[capacity];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public long getMostSigBits(int index) {
+        checkIndex(index);
+        return this.mostSigBits[index];
+    }
+
+    public long getLeastSigBits(int index) {
+        checkIndex(index);
+        return this.leastSigBits[index];
+    }
+
+    public CompactItem get(int index) {
+        checkIndex(index);
+        return new CompactItem(this.mostSigBits[index], this.leastSigBits[index]);
+    }
+
+    /**
+     * Returns the batch to its pool.
+     */
+    public void release() {
+        if (this.released) {
+            throw new IllegalStateException("batch already released");
+        }
+        this.released = true;
+        this.size = 0;
+        this.pool.release(this);
+    }
+
+    boolean isFull() {
+        return this.size == this.mostSigBits.length;
+    }
+
+    void add(long mostSigBits, long leastSigBits) {
+        this.mostSigBits[this.size] = mostSigBits;
+        this.leastSigBits[this.size] = leastSigBits;
+        this.size++;
+    }
+
+    void reuse() {
+        this.released = false;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + this.size);
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.example.decoder;
+
+import java.io.IOException;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+/**
+ * Collects the items of an {@link ItemsDecoder} into {@link ItemBatch}es. The
+ * uuid of each item is bound into a single reused {@link CompactItem} and
+ * copied into the batch, so complete batches are the only objects emitted.
+ * <p>
+ * A batch is emitted when it is full or when input has ended.
+ */
+final class ItemBatchDecoder implements EntityDecoder<ItemBatch> {
+
+    private final ItemsDecoder<CompactItem> decoder;
+    private final ItemBatchPool pool;
+    private ItemBatch batch;
+
+    ItemBatchDecoder(StreamingEnvelopeDecoder<CompactItem> envelopeDecoder, ItemBatchPool pool)
+            throws IOException {
+        this.decoder = envelopeDecoder.createDecoder(new ReusingBinder());
+        this.pool = pool;
+    }
+
+    @Override
+    public void feed(DataBuffer dataBuffer) throws IOException {
+        this.decoder.feed(dataBuffer);
+    }
+
+    @Override
+    public void endOfInput() {
+        this.decoder.endOfInput();
+    }
+
+    @Override
+    public boolean isInputEnded() {
+        return this.decoder.isInputEnded();
+    }
+
+    @Override
+    public ItemBatch next() throws IOException {
+        for (;;) {
+            CompactItem item = this.decoder.next();
+            if (item == null) {
+                return this.decoder.isInputEnded() ? takeBatch() : null;
+            }
+
+            if (this.batch == null) {
+                this.batch = this.pool.acquire();
+            }
+            this.batch.add(item.getMostSigBits(), item.getLeastSigBits());
+            if (this.batch.isFull()) {
+                return takeBatch();
+            }
+        }
+    }
+
+    @Override
+    public void finish() {
+        this.decoder.finish();
+    }
+
+    @Override
+    public void discard(ItemBatch batch) {
+        batch.release();
+    }
+
+    @Override
+    public void dispose() {
+        ItemBatch batch = takeBatch();
+        if (batch != null) {
+            batch.release();
+        }
+        this.decoder.dispose();
+    }
+
+    private ItemBatch takeBatch() {
+        ItemBatch batch = this.batch;
+        this.batch = null;
+        return batch;
+    }
+
+    /**
+     * Binds every item into the same instance, which is copied into the batch
+     * right away.
+     */
+    private static class ReusingBinder extends CompactItemBinder {
+
+        private final CompactItem item = new CompactItem();
+
+        @Override
+        public CompactItem create() {
+            this.item.clear();
+            return this.item;
+        }
+
+    }
+
+}
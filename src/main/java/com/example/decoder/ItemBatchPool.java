@@ -0,0 +1,48 @@
+package com.example.decoder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Keeps released {@link ItemBatch}es for reuse. When the pool is empty, new
+ * batches are allocated; at most {@code maxPooled} released batches are
+ * kept.
+ */
+public class ItemBatchPool {
+
+    private final int batchSize;
+    private final BlockingQueue<ItemBatch> batches;
+
+    public ItemBatchPool(int batchSize, int maxPooled) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.batchSize = batchSize;
+        this.batches = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * The number of released batches currently held for reuse.
+     */
+    public int getPooledCount() {
+        return this.batches.size();
+    }
+
+    ItemBatch acquire() {
+        ItemBatch batch = this.batches.poll();
+        if (batch == null) {
+            return new ItemBatch(this, this.batchSize);
+        }
+        batch.reuse();
+        return batch;
+    }
+
+    void release(ItemBatch batch) {
+        this.batches.offer(batch);
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.example.decoder;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+public class ItemBinder implements FlatEntityBinder<Item> {
+
+    @Override
+    public Item create() {
+        return new Item();
+    }
+
+    @Override
+    public boolean bindField(Item target, String name, JsonParser parser) throws IOException {
+        if (!"uuid".equals(name)) {
+            return false;
+        }
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_STRING) {
+            target.setUuid(parser.getText());
+            return true;
+        }
+        if (token == JsonToken.VALUE_NULL) {
+            target.setUuid(null);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void replay(Item target, JsonGenerator generator) throws IOException {
+        if (target.getUuid() != null) {
+            generator.writeStringField("uuid", target.getUuid());
+        }
+    }
+
+}
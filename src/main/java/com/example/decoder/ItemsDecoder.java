@@ -1,131 +1,502 @@
 package com.example.decoder;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+import java.util.stream.Stream;
 
 import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.util.ConcurrentReferenceHashMap;
 
+import com.example.decoder.DecoderLimits.Limit;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.core.io.JsonEOFException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.Mono;
 
-public class ItemsDecoder {
+/**
+ * Streaming parser state for a single envelope response, see
+ * {@link StreamingEnvelopeDecoder}.
+ */
+public class ItemsDecoder<T> implements EntityDecoder<T> {
+
+    // soft, since weak entries would be cleared by every GC while the mapper is still in use
+    private static final Map<ObjectMapper, StreamingEnvelopeDecoder<Item>> codecCache = new ConcurrentReferenceHashMap<>(
+            16, ConcurrentReferenceHashMap.ReferenceType.SOFT);
 
     public static Flux<Item> transform(Flux<DataBuffer> dataBuffers, ObjectMapper objectMapper) {
-        ItemsDecoder decoder;
-        try {
-            decoder = new ItemsDecoder(objectMapper);
-        } catch (IOException e) {
-            return Flux.error(e);
+        return transform(dataBuffers, objectMapper, DecoderMetrics.NONE);
+    }
+
+    public static Flux<Item> transform(Flux<DataBuffer> dataBuffers, ObjectMapper objectMapper,
+            DecoderMetrics metrics) {
+        if (metrics == DecoderMetrics.NONE) {
+            return codecFor(objectMapper).decode(dataBuffers);
         }
+        StreamingEnvelopeDecoder<Item> decoder = new StreamingEnvelopeDecoder<>(objectMapper,
+                Item.class);
+        decoder.setEntityBinder(new ItemBinder());
+        decoder.setMetrics(metrics);
+        return decoder.decode(dataBuffers);
+    }
+
+    /**
+     * The codec for plain {@link Item}s is shared by all calls with the same
+     * {@link ObjectMapper}, since many small responses would otherwise spend a
+     * good part of their time setting it up.
+     */
+    private static StreamingEnvelopeDecoder<Item> codecFor(ObjectMapper objectMapper) {
+        return codecCache.computeIfAbsent(objectMapper, m -> {
+            StreamingEnvelopeDecoder<Item> decoder = new StreamingEnvelopeDecoder<>(m, Item.class);
+            decoder.setEntityBinder(new ItemBinder());
+            return decoder;
+        });
+    }
+
+    /**
+     * Decodes newline delimited JSON items, see
+     * {@link StreamingEnvelopeDecoder#decodeLines(org.reactivestreams.Publisher)}.
+     */
+    public static Flux<Item> transformLines(Flux<DataBuffer> dataBuffers,
+            ObjectMapper objectMapper) {
+        return codecFor(objectMapper).decodeLines(dataBuffers);
+    }
+
+    /**
+     * Decodes the items of a stream that is requested again when it breaks
+     * off, up to {@code maxRetries} times. The source is called with the
+     * number of items received so far, and has to return the rest of the same
+     * sequence from that offset on, see the {@code offset} and {@code seed}
+     * parameters of the items endpoint.
+     * <p>
+     * Only transport errors and truncated input are retried, not the error
+     * object of an envelope or invalid input.
+     */
+    public static Flux<Item> transformResumable(LongFunction<Flux<DataBuffer>> source,
+            ObjectMapper objectMapper, int maxRetries) {
+        return Flux.defer(() -> {
+            AtomicLong offset = new AtomicLong();
+            return Flux.defer(() -> transform(source.apply(offset.get()), objectMapper))
+                    .doOnNext(item -> offset.incrementAndGet())
+                    .retry(maxRetries, ItemsDecoder::isResumable);
+        });
+    }
+
+    private static boolean isResumable(Throwable ex) {
+        // the decoder reports everything else as IllegalStateException
+        return ex instanceof IncompleteEnvelopeException || !(ex instanceof IllegalStateException);
+    }
+
+    /**
+     * Decodes the items for a consumer that takes them one by one on its own
+     * thread, with at most {@code capacity} items decoded ahead of it. The
+     * iterator must be closed if it isn't read to the end.
+     */
+    public static BlockingEntityIterator<Item> toIterator(Flux<DataBuffer> dataBuffers,
+            ObjectMapper objectMapper, int capacity) {
+        return new BlockingEntityIterator<>(transform(dataBuffers, objectMapper), capacity);
+    }
+
+    /**
+     * Stream version of {@link #toIterator(Flux, ObjectMapper, int)}; closing
+     * the stream cancels the response.
+     */
+    public static Stream<Item> toStream(Flux<DataBuffer> dataBuffers, ObjectMapper objectMapper,
+            int capacity) {
+        return toIterator(dataBuffers, objectMapper, capacity).stream();
+    }
 
-        return dataBuffers.flatMap(decoder::transform, Flux::error, decoder::endOfInput);
+    /**
+     * Decodes the items into {@link ItemBatch}es taken from the given pool.
+     * Each batch must be released by the consumer.
+     */
+    public static Flux<ItemBatch> transformToBatches(Flux<DataBuffer> dataBuffers,
+            ObjectMapper objectMapper, ItemBatchPool pool) {
+        StreamingEnvelopeDecoder<CompactItem> decoder = new StreamingEnvelopeDecoder<>(
+                objectMapper, CompactItem.class);
+        return decoder.decodeWith(dataBuffers, () -> new ItemBatchDecoder(decoder, pool));
     }
 
+    private final StreamingEnvelopeDecoder<?> settings;
     private final ObjectMapper objectMapper;
-    private final ObjectReader itemsReader;
+    private final EntityReader<T> itemsReader;
     private final ObjectReader errorReader;
+    private final FlatEntityBinder<T> entityBinder;
+    private final EnvelopeFields envelopeFields;
+    private final String[] itemsPath;
+    private final String[] errorPath;
+    private final DecoderMetrics metrics;
+    private final boolean metricsEnabled;
+    private final DecoderLimits limits;
+    private final boolean limitsEnabled;
     private final JsonParser parser;
     private final ByteArrayFeeder inputFeeder;
 
+    private byte[] scratchBuffer = ScratchBuffers.EMPTY;
+    private DataBuffer input;
+    private boolean inputEnded;
+    private long byteCount;
+    private long itemCount;
+
     private TokenBuffer tokenBuffer;
     private State state = State.START;
+    private final List<String> envelopePath = new ArrayList<>();
+    private String envelopeField;
     private int depth;
-    private List<Item> result;
+    private T entity;
+    private T boundEntity;
+    private String fieldName;
     private ErrorDetail error;
 
-    private ItemsDecoder(ObjectMapper objectMapper) throws IOException {
-        this.objectMapper = objectMapper;
-        this.itemsReader = this.objectMapper.readerFor(Item.class);
-        this.errorReader = this.objectMapper.readerFor(ErrorDetail.class);
+    // only maintained when metrics are enabled
+    private int chunkBytes;
+    private int chunkItems;
+    private long chunkNanos;
+
+    // only maintained when metrics or limits are enabled
+    private long entityStart;
+
+    // only maintained when limits are enabled
+    private int nesting;
+
+    /**
+     * @param settings the codec that provides the envelope layout, limits and
+     *        metrics
+     * @param entityBinder binds elements directly, may be {@code null}
+     * @param envelopeFields captures envelope fields, may be {@code null}
+     */
+    ItemsDecoder(StreamingEnvelopeDecoder<?> settings, EntityReader<T> itemsReader,
+            FlatEntityBinder<T> entityBinder, EnvelopeFields envelopeFields) throws IOException {
+        this.settings = settings;
+        this.objectMapper = settings.getObjectMapper();
+        this.itemsReader = itemsReader;
+        this.errorReader = settings.getErrorReader();
+        this.entityBinder = entityBinder;
+        this.envelopeFields = envelopeFields;
+        this.itemsPath = settings.getItemsPath();
+        this.errorPath = settings.getErrorPath();
+        this.metrics = settings.getMetrics();
+        this.metricsEnabled = this.metrics != DecoderMetrics.NONE;
+        this.limits = settings.getLimits();
+        this.limitsEnabled = this.limits.isEnabled();
 
-        JsonFactory jsonFactory = objectMapper.getFactory();
+        JsonFactory jsonFactory = this.objectMapper.getFactory();
         this.parser = jsonFactory.createNonBlockingByteArrayParser();
 
         this.inputFeeder = (ByteArrayFeeder) this.parser.getNonBlockingInputFeeder();
-        this.tokenBuffer = new TokenBuffer(this.parser);
     }
 
-    private Flux<Item> transform(DataBuffer dataBuffer) {
-        byte[] buffer = new byte[dataBuffer.readableByteCount()];
-        dataBuffer.read(buffer);
-        DataBufferUtils.release(dataBuffer);
+    /**
+     * Hands the next chunk to the parser. The buffer is owned by the decoder
+     * until the parser has consumed it, see {@link #next()}.
+     */
+    @Override
+    public void feed(DataBuffer dataBuffer) throws IOException {
+        this.input = dataBuffer;
 
-        try {
-            this.inputFeeder.feedInput(buffer, 0, buffer.length);
-            return parseResponseData();
-        } catch (JsonProcessingException e) {
-            return Flux.error(new IllegalStateException(
-                    "Could not parse message response: " + e.getOriginalMessage(), e));
-        } catch (IOException e) {
-            return Flux.error(e);
+        ByteBuffer byteBuffer = dataBuffer.asByteBuffer();
+        int length = byteBuffer.remaining();
+        this.chunkBytes = length;
+        this.byteCount += length;
+        // the decoder holds a single chunk at a time
+        if (this.limitsEnabled && length > this.limits.getMaxBufferedBytes()) {
+            throw new DecoderLimitException(Limit.BUFFERED_BYTES,
+                    this.limits.getMaxBufferedBytes());
+        }
+        if (byteBuffer.hasArray()) {
+            // heap buffer: let the parser read straight from the backing array
+            int offset = byteBuffer.arrayOffset() + byteBuffer.position();
+            this.inputFeeder.feedInput(byteBuffer.array(), offset, offset + length);
+        }
+        else {
+            // direct or pooled buffer: copy into a scratch array reused for every chunk
+            if (this.scratchBuffer.length < length) {
+                this.scratchBuffer = ScratchBuffers.grow(this.scratchBuffer, length);
+            }
+            byteBuffer.get(this.scratchBuffer, 0, length);
+            this.inputFeeder.feedInput(this.scratchBuffer, 0, length);
         }
     }
 
-    private Flux<Item> endOfInput() {
-        try {
-            Flux<Item> items = parseResponseData();
-            // items was prepared from List, so it's actually synchronous up to here
-            if (this.state != State.FINISHED) {
-                throw new IllegalStateException("incomplete JSON input");
-            }
-            return items;
-        } catch (IOException e) {
-            return Flux.error(e);
+    @Override
+    public void endOfInput() {
+        this.inputFeeder.endOfInput();
+        this.inputEnded = true;
+    }
+
+    @Override
+    public boolean isInputEnded() {
+        return this.inputEnded;
+    }
+
+    /**
+     * Parses up to the next complete entity.
+     *
+     * @return the entity, or {@code null} if more input is needed (or input
+     *         has ended)
+     */
+    @Override
+    public T next() throws IOException {
+        if (!this.metricsEnabled) {
+            return nextEntity();
+        }
+
+        long start = System.nanoTime();
+        T result = nextEntity();
+        this.chunkNanos += System.nanoTime() - start;
+
+        if (result != null) {
+            this.chunkItems++;
+            this.metrics.itemDecoded(this.parser.getCurrentLocation().getByteOffset() - this.entityStart);
         }
+        else if (this.chunkBytes != 0) {
+            this.metrics.chunkDecoded(this.chunkBytes, this.chunkItems, this.chunkNanos);
+            this.chunkBytes = 0;
+            this.chunkItems = 0;
+            this.chunkNanos = 0L;
+        }
+        return result;
     }
 
-    private Flux<Item> parseResponseData() throws IOException {
-        this.result = new ArrayList<>();
-        while (true) {
-            JsonToken token = this.parser.nextToken();
+    private T nextEntity() throws IOException {
+        while (this.entity == null) {
+            JsonToken token;
+            try {
+                token = this.parser.nextToken();
+            } catch (JsonEOFException ex) {
+                throw new IncompleteEnvelopeException(this.itemCount, this.byteCount, ex);
+            }
             if (token == null || token == JsonToken.NOT_AVAILABLE) {
-                break;
+                // all fed input has been consumed
+                if (this.limitsEnabled && this.depth > 0 && this.state != State.SKIP) {
+                    checkEntitySize();
+                }
+                releaseInput();
+                return null;
             }
 
+            if (this.limitsEnabled) {
+                checkDepth(token);
+            }
             this.state.next(this, token);
         }
 
-        Flux<Item> flux = Flux.fromIterable(this.result);
+        this.itemCount++;
+        if (this.limitsEnabled) {
+            checkEntitySize();
+            if (this.itemCount > this.limits.getMaxItems()) {
+                throw new DecoderLimitException(Limit.ITEMS, this.limits.getMaxItems());
+            }
+        }
+        T result = this.entity;
+        this.entity = null;
+        return result;
+    }
+
+    private void checkDepth(JsonToken token) {
+        if (token.isStructStart()) {
+            if (++this.nesting > this.limits.getMaxDepth()) {
+                throw new DecoderLimitException(Limit.DEPTH, this.limits.getMaxDepth());
+            }
+        }
+        else if (token.isStructEnd()) {
+            this.nesting--;
+        }
+    }
+
+    private void checkEntitySize() {
+        long size = this.parser.getCurrentLocation().getByteOffset() - this.entityStart;
+        if (size > this.limits.getMaxEntityBytes()) {
+            throw new DecoderLimitException(Limit.ENTITY_BYTES, this.limits.getMaxEntityBytes());
+        }
+    }
+
+    /**
+     * Checks the envelope after input has ended and all entities have been
+     * taken.
+     */
+    @Override
+    public void finish() {
         if (this.error != null) {
-            flux = flux.concatWith(Mono.error(new IllegalStateException(this.error.getMessage())));
+            throw new ItemsErrorException(this.error);
+        }
+        if (this.state != State.FINISHED) {
+            throw new IncompleteEnvelopeException(this.itemCount, this.byteCount, null);
+        }
+    }
+
+    /**
+     * Returns the number of entities decoded so far.
+     */
+    public long getItemCount() {
+        return this.itemCount;
+    }
+
+    /**
+     * Returns the number of input bytes consumed so far. Input is consumed
+     * completely before more is requested, so this is the total size of the
+     * chunks fed to the decoder.
+     */
+    public long getByteCount() {
+        return this.byteCount;
+    }
+
+    @Override
+    public void dispose() {
+        releaseInput();
+        ScratchBuffers.release(this.scratchBuffer);
+        this.scratchBuffer = ScratchBuffers.EMPTY;
+        if (this.envelopeFields != null) {
+            this.envelopeFields.cancel();
+        }
+    }
+
+    private void releaseInput() {
+        DataBuffer dataBuffer = this.input;
+        if (dataBuffer != null) {
+            this.input = null;
+            DataBufferUtils.release(dataBuffer);
         }
-        return flux;
     }
 
     private void readEntity() throws IOException {
         TokenBuffer buffer = this.tokenBuffer;
-        this.tokenBuffer = new TokenBuffer(this.parser);
+        this.tokenBuffer = null;
 
         if (this.state == State.ITEMS) {
-            Item item = this.itemsReader.readValue(buffer.asParser(this.objectMapper));
-            this.result.add(item);
+            this.entity = this.itemsReader.read(buffer);
         }
         else if (this.state == State.ERROR) {
-            ErrorDetail errorDetail = this.errorReader
-                    .readValue(buffer.asParser(this.objectMapper));
-            this.error = errorDetail;
+            if (this.limitsEnabled) {
+                checkEntitySize();
+            }
+            this.error = this.errorReader.readValue(buffer.asParser(this.objectMapper));
+            this.state = State.TOPLEVEL;
+            if (this.settings.isFailFast()) {
+                throw new ItemsErrorException(this.error);
+            }
+        }
+        else if (this.state == State.CAPTURE) {
+            JsonNode value = this.objectMapper.readTree(buffer.asParser(this.objectMapper));
+            this.envelopeFields.capture(this.envelopeField, value);
+            this.state = State.TOPLEVEL;
         }
         else {
             throw new IllegalStateException("unexpected parser state");
         }
     }
 
+    /**
+     * The buffer for the entity at hand. It is only created for entities
+     * that are not bound directly.
+     */
+    private TokenBuffer tokenBuffer() {
+        TokenBuffer tokens = this.tokenBuffer;
+        if (tokens == null) {
+            tokens = new TokenBuffer(this.parser);
+            this.tokenBuffer = tokens;
+        }
+        return tokens;
+    }
+
+    private void entityStarted() {
+        if (this.metricsEnabled || this.limitsEnabled) {
+            // the parser has just consumed the opening brace
+            this.entityStart = this.parser.getCurrentLocation().getByteOffset() - 1;
+        }
+    }
+
+    private void startEntity() {
+        this.depth = 1;
+        this.boundEntity = this.entityBinder.create();
+    }
+
+    /**
+     * Binds the current token straight into {@link #boundEntity}.
+     *
+     * @return {@code false} if the entity has to take the generic route from
+     *         the current token on
+     */
+    private boolean bindEntity(JsonToken token) throws IOException {
+        switch (token) {
+        case FIELD_NAME:
+            this.fieldName = this.parser.getCurrentName();
+            return true;
+        case END_OBJECT:
+            this.depth = 0;
+            this.entity = this.boundEntity;
+            this.boundEntity = null;
+            return true;
+        case START_OBJECT:
+        case START_ARRAY:
+            break;
+        default:
+            if (this.entityBinder.bindField(this.boundEntity, this.fieldName, this.parser)) {
+                return true;
+            }
+            break;
+        }
+
+        // replay what has been bound so far, the current token is copied by the caller
+        TokenBuffer tokens = tokenBuffer();
+        tokens.writeStartObject();
+        this.entityBinder.replay(this.boundEntity, tokens);
+        tokens.writeFieldName(this.fieldName);
+        this.boundEntity = null;
+        return false;
+    }
+
+    private boolean isEnvelopeField(String[] path, String name) {
+        int size = this.envelopePath.size();
+        if (path.length != size + 1 || !path[size].equals(name)) {
+            return false;
+        }
+        return isEnvelopePrefix(path, size);
+    }
+
+    private boolean isEnclosingField(String[] path, String name) {
+        int size = this.envelopePath.size();
+        if (path.length <= size + 1 || !path[size].equals(name)) {
+            return false;
+        }
+        return isEnvelopePrefix(path, size);
+    }
+
+    private boolean isEnvelopePrefix(String[] path, int size) {
+        for (int i = 0; i < size; i++) {
+            if (!path[i].equals(this.envelopePath.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Turns the buffered tokens of one entity into the emitted value.
+     */
+    interface EntityReader<T> {
+
+        T read(TokenBuffer tokens) throws IOException;
+
+    }
+
     private enum State {
         START {
             @Override
-            void next(ItemsDecoder parent, JsonToken token) throws JsonParseException {
+            void next(ItemsDecoder<?> parent, JsonToken token) throws JsonParseException {
                 if (token != JsonToken.START_OBJECT) {
                     throw new JsonParseException(parent.parser, "expected top-level object");
                 }
@@ -134,19 +505,40 @@ public class ItemsDecoder {
         },
         TOPLEVEL {
             @Override
-            void next(ItemsDecoder parent, JsonToken token) throws JsonParseException, IOException {
+            void next(ItemsDecoder<?> parent, JsonToken token) throws JsonParseException, IOException {
                 if (token == JsonToken.END_OBJECT) {
-                    parent.state = FINISHED;
+                    if (parent.envelopePath.isEmpty()) {
+                        parent.state = FINISHED;
+                        if (parent.envelopeFields != null) {
+                            parent.envelopeFields.complete();
+                        }
+                    }
+                    else {
+                        parent.envelopePath.remove(parent.envelopePath.size() - 1);
+                    }
                 }
                 else if (token == JsonToken.FIELD_NAME) {
-                    switch (parent.parser.getText()) {
-                    case "items":
+                    String name = parent.parser.getCurrentName();
+                    if (parent.isEnvelopeField(parent.itemsPath, name)) {
                         parent.state = ITEMS;
-                        break;
-                    case "error":
+                    }
+                    else if (parent.isEnvelopeField(parent.errorPath, name)) {
                         parent.state = ERROR;
-                        break;
-                    default:
+                    }
+                    else if (parent.isEnclosingField(parent.itemsPath, name)
+                            || parent.isEnclosingField(parent.errorPath, name)) {
+                        parent.envelopeField = name;
+                        parent.state = NESTED;
+                    }
+                    else if (parent.envelopeFields != null
+                            && parent.envelopeFields.isCaptured(name)) {
+                        parent.envelopeField = name;
+                        parent.state = CAPTURE;
+                    }
+                    else if (parent.settings.isIgnoredField(name)) {
+                        parent.state = SKIP;
+                    }
+                    else {
                         throw new JsonParseException(parent.parser, "unknown field name");
                     }
                 }
@@ -155,47 +547,105 @@ public class ItemsDecoder {
                 }
             }
         },
+        NESTED {
+            @Override
+            void next(ItemsDecoder<?> parent, JsonToken token) throws JsonParseException {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new JsonParseException(parent.parser, "expected envelope object");
+                }
+                parent.envelopePath.add(parent.envelopeField);
+                parent.state = TOPLEVEL;
+            }
+        },
         ITEMS {
             @Override
-            void next(ItemsDecoder parent, JsonToken token) throws IOException {
+            void next(ItemsDecoder<?> parent, JsonToken token) throws IOException {
+                if (parent.boundEntity != null) {
+                    if (parent.bindEntity(token)) {
+                        return;
+                    }
+                }
+                else if (parent.depth == 0 && token == JsonToken.START_OBJECT) {
+                    parent.entityStarted();
+                    if (parent.entityBinder != null) {
+                        parent.startEntity();
+                        return;
+                    }
+                }
                 readObjects(parent, token, true);
             }
 
         },
         ERROR {
             @Override
-            void next(ItemsDecoder parent, JsonToken token) throws IOException {
+            void next(ItemsDecoder<?> parent, JsonToken token) throws IOException {
+                if (parent.depth == 0 && token == JsonToken.START_OBJECT) {
+                    parent.entityStarted();
+                }
                 readObjects(parent, token, false);
             }
         },
+        CAPTURE {
+            @Override
+            void next(ItemsDecoder<?> parent, JsonToken token) throws IOException {
+                parent.tokenBuffer().copyCurrentEvent(parent.parser);
+                if (token.isStructStart()) {
+                    if (parent.depth == 0) {
+                        parent.entityStarted();
+                    }
+                    parent.depth++;
+                }
+                else if (token.isStructEnd()) {
+                    parent.depth--;
+                }
+                if (parent.depth == 0) {
+                    parent.readEntity();
+                }
+            }
+        },
+        SKIP {
+            @Override
+            void next(ItemsDecoder<?> parent, JsonToken token) {
+                // the value is tokenized but neither buffered nor bound
+                if (token.isStructStart()) {
+                    parent.depth++;
+                }
+                else if (token.isStructEnd()) {
+                    parent.depth--;
+                }
+                if (parent.depth == 0) {
+                    parent.state = TOPLEVEL;
+                }
+            }
+        },
         FINISHED {
             @Override
-            void next(ItemsDecoder parent, JsonToken token) throws JsonParseException {
+            void next(ItemsDecoder<?> parent, JsonToken token) throws JsonParseException {
                 throw new JsonParseException(parent.parser, "unexpected token");
             }
         };
 
-        abstract void next(ItemsDecoder parent, JsonToken token) throws IOException;
+        abstract void next(ItemsDecoder<?> parent, JsonToken token) throws IOException;
 
-        private static void readObjects(ItemsDecoder parent, JsonToken token, boolean isArray)
+        private static void readObjects(ItemsDecoder<?> parent, JsonToken token, boolean isArray)
                 throws IOException, JsonParseException {
             switch (token) {
             case START_OBJECT:
                 parent.depth++;
-                parent.tokenBuffer.copyCurrentEvent(parent.parser);
+                parent.tokenBuffer().copyCurrentEvent(parent.parser);
                 break;
             case END_OBJECT:
                 if (parent.depth == 0) {
                     if (isArray) {
-                        parent.tokenBuffer.copyCurrentEvent(parent.parser);
+                        parent.tokenBuffer().copyCurrentEvent(parent.parser);
                     }
                     else {
                         parent.state = TOPLEVEL;
                     }
                 }
                 else {
+                    parent.tokenBuffer().copyCurrentEvent(parent.parser);
                     if (--parent.depth == 0) {
-                        parent.tokenBuffer.copyCurrentEvent(parent.parser);
                         parent.readEntity();
                     }
                 }
@@ -207,7 +657,7 @@ public class ItemsDecoder {
                     }
                 }
                 else {
-                    parent.tokenBuffer.copyCurrentEvent(parent.parser);
+                    parent.tokenBuffer().copyCurrentEvent(parent.parser);
                 }
                 break;
             case END_ARRAY:
@@ -220,14 +670,14 @@ public class ItemsDecoder {
                     }
                 }
                 else {
-                    parent.tokenBuffer.copyCurrentEvent(parent.parser);
+                    parent.tokenBuffer().copyCurrentEvent(parent.parser);
                 }
                 break;
             default:
                 if (parent.depth == 0) {
                     throw new JsonParseException(parent.parser, "unexpected parser state");
                 }
-                parent.tokenBuffer.copyCurrentEvent(parent.parser);
+                parent.tokenBuffer().copyCurrentEvent(parent.parser);
                 break;
             }
         }
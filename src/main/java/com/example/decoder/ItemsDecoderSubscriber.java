@@ -0,0 +1,289 @@
+package com.example.decoder;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import org.reactivestreams.Subscription;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Operators;
+import reactor.util.context.Context;
+
+/**
+ * Drives an {@link EntityDecoder} from a stream of {@link DataBuffer}s.
+ * <p>
+ * Entities are emitted one by one as downstream demand arrives. Chunks are
+ * requested from upstream one at a time and decoded strictly in order. By
+ * default the next chunk is requested only when the decoder has consumed its
+ * current input and there is outstanding demand, so at most one chunk is held
+ * at any time. With a prefetch, chunks are requested ahead, regardless of
+ * demand, until the queued chunks add up to the prefetch size in bytes; a
+ * slow consumer thus stops the reads from upstream once the prefetch is
+ * full.
+ */
+final class ItemsDecoderSubscriber<T> implements CoreSubscriber<DataBuffer>, Subscription {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<ItemsDecoderSubscriber> WIP = AtomicIntegerFieldUpdater
+            .newUpdater(ItemsDecoderSubscriber.class, "wip");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<ItemsDecoderSubscriber> REQUESTED = AtomicLongFieldUpdater
+            .newUpdater(ItemsDecoderSubscriber.class, "requested");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<ItemsDecoderSubscriber> QUEUED_BYTES = AtomicLongFieldUpdater
+            .newUpdater(ItemsDecoderSubscriber.class, "queuedBytes");
+
+    private final CoreSubscriber<? super T> actual;
+    private final EntityDecoder<T> decoder;
+    private final int prefetchBytes;
+    private final long maxBufferedBytes;
+
+    private Subscription upstream;
+    private final Queue<DataBuffer> queue = new ConcurrentLinkedQueue<>();
+    private volatile long queuedBytes;
+    private volatile boolean done;
+    private Throwable upstreamError;
+    private volatile Throwable limitError;
+    private volatile boolean cancelled;
+
+    private volatile int wip;
+    private volatile long requested;
+
+    // set in drain(), cleared when the requested chunk arrives
+    private volatile boolean inputRequested;
+
+    // the size of the chunk the decoder is working on
+    private volatile int decodingBytes;
+
+    // only accessed from drain()
+    private T ready;
+
+    /**
+     * @param prefetchBytes how many bytes to request ahead of the decoder
+     * @param maxBufferedBytes the limit for the queued chunks together with
+     *        the chunk being decoded
+     */
+    ItemsDecoderSubscriber(CoreSubscriber<? super T> actual, EntityDecoder<T> decoder,
+            int prefetchBytes, long maxBufferedBytes) {
+        this.actual = actual;
+        this.decoder = decoder;
+        this.prefetchBytes = prefetchBytes;
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    @Override
+    public Context currentContext() {
+        return this.actual.currentContext();
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        if (Operators.validate(this.upstream, s)) {
+            this.upstream = s;
+            this.actual.onSubscribe(this);
+            if (this.prefetchBytes > 0) {
+                drain();
+            }
+        }
+    }
+
+    @Override
+    public void onNext(DataBuffer dataBuffer) {
+        if (this.done || this.cancelled) {
+            DataBufferUtils.release(dataBuffer);
+            return;
+        }
+        long buffered = QUEUED_BYTES.addAndGet(this, dataBuffer.readableByteCount());
+        this.queue.offer(dataBuffer);
+        this.inputRequested = false;
+        if (this.cancelled) {
+            // raced with cancel(), which may have cleaned up already
+            releaseQueued();
+            return;
+        }
+        if (buffered + this.decodingBytes > this.maxBufferedBytes) {
+            this.limitError = new DecoderLimitException(DecoderLimits.Limit.BUFFERED_BYTES,
+                    this.maxBufferedBytes);
+        }
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        if (this.done) {
+            Operators.onErrorDropped(t, currentContext());
+            return;
+        }
+        this.upstreamError = t;
+        this.done = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        if (this.done) {
+            return;
+        }
+        this.done = true;
+        drain();
+    }
+
+    @Override
+    public void request(long n) {
+        if (Operators.validate(n)) {
+            Operators.addCap(REQUESTED, this, n);
+            drain();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        if (this.cancelled) {
+            return;
+        }
+        this.cancelled = true;
+        this.upstream.cancel();
+        if (WIP.getAndIncrement(this) == 0) {
+            cleanup();
+        }
+    }
+
+    private void drain() {
+        if (WIP.getAndIncrement(this) != 0) {
+            return;
+        }
+
+        int missed = 1;
+        for (;;) {
+            long r = this.requested;
+            long e = 0L;
+
+            for (;;) {
+                if (this.cancelled) {
+                    cleanup();
+                    return;
+                }
+                if (this.limitError != null) {
+                    fail(this.limitError);
+                    return;
+                }
+
+                if (this.ready == null) {
+                    try {
+                        this.ready = this.decoder.next();
+                    } catch (JsonProcessingException ex) {
+                        fail(new IllegalStateException(
+                                "Could not parse message response: " + ex.getOriginalMessage(), ex));
+                        return;
+                    } catch (IOException | RuntimeException ex) {
+                        fail(ex);
+                        return;
+                    }
+                }
+
+                if (this.ready != null) {
+                    if (e == r) {
+                        break;
+                    }
+                    T entity = this.ready;
+                    this.ready = null;
+                    this.actual.onNext(entity);
+                    e++;
+                    continue;
+                }
+
+                // the decoder needs more input; read done before polling the queue
+                this.decodingBytes = 0;
+                boolean d = this.done;
+                DataBuffer dataBuffer = this.queue.poll();
+                if (dataBuffer != null) {
+                    int size = dataBuffer.readableByteCount();
+                    QUEUED_BYTES.addAndGet(this, -size);
+                    this.decodingBytes = size;
+                    try {
+                        this.decoder.feed(dataBuffer);
+                    } catch (IOException | RuntimeException ex) {
+                        // the decoder owns the buffer and releases it on cleanup
+                        fail(ex);
+                        return;
+                    }
+                    continue;
+                }
+
+                if (d) {
+                    if (this.upstreamError != null) {
+                        fail(this.upstreamError);
+                        return;
+                    }
+                    if (!this.decoder.isInputEnded()) {
+                        this.decoder.endOfInput();
+                        continue;
+                    }
+                    try {
+                        this.decoder.finish();
+                    } catch (RuntimeException ex) {
+                        fail(ex);
+                        return;
+                    }
+                    this.cancelled = true;
+                    cleanup();
+                    this.actual.onComplete();
+                    return;
+                }
+
+                if (e != r && !this.inputRequested) {
+                    this.inputRequested = true;
+                    this.upstream.request(1);
+                }
+                break;
+            }
+
+            if (this.queuedBytes < this.prefetchBytes && !this.inputRequested && !this.done) {
+                this.inputRequested = true;
+                this.upstream.request(1);
+            }
+
+            if (e != 0L && r != Long.MAX_VALUE) {
+                Operators.produced(REQUESTED, this, e);
+            }
+
+            missed = WIP.addAndGet(this, -missed);
+            if (missed == 0) {
+                break;
+            }
+        }
+    }
+
+    private void fail(Throwable t) {
+        this.cancelled = true;
+        this.upstream.cancel();
+        cleanup();
+        this.actual.onError(t);
+    }
+
+    private void cleanup() {
+        T entity = this.ready;
+        if (entity != null) {
+            this.ready = null;
+            this.decoder.discard(entity);
+        }
+        releaseQueued();
+        this.decoder.dispose();
+    }
+
+    private void releaseQueued() {
+        DataBuffer dataBuffer;
+        while ((dataBuffer = this.queue.poll()) != null) {
+            QUEUED_BYTES.addAndGet(this, -dataBuffer.readableByteCount());
+            DataBufferUtils.release(dataBuffer);
+        }
+    }
+
+}
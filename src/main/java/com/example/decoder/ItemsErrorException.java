@@ -0,0 +1,21 @@
+package com.example.decoder;
+
+/**
+ * Reports the error object of an envelope.
+ */
+public class ItemsErrorException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ErrorDetail errorDetail;
+
+    public ItemsErrorException(ErrorDetail errorDetail) {
+        super(errorDetail.getMessage());
+        this.errorDetail = errorDetail;
+    }
+
+    public ErrorDetail getErrorDetail() {
+        return this.errorDetail;
+    }
+
+}
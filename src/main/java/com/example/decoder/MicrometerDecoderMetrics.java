@@ -0,0 +1,56 @@
+package com.example.decoder;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Publishes {@link DecoderMetrics} to a Micrometer {@link MeterRegistry}.
+ * Throughput in bytes/s and items/s is the rate of the
+ * {@code items.decoder.bytes} and {@code items.decoder.items} counters.
+ */
+public class MicrometerDecoderMetrics implements DecoderMetrics {
+
+    private final Counter bytes;
+    private final Counter items;
+    private final DistributionSummary itemsPerChunk;
+    private final DistributionSummary bytesPerItem;
+    private final Timer parseTime;
+
+    public MicrometerDecoderMetrics(MeterRegistry registry) {
+        this.bytes = Counter.builder("items.decoder.bytes")
+                .baseUnit("bytes")
+                .description("Bytes fed to the parser")
+                .register(registry);
+        this.items = Counter.builder("items.decoder.items")
+                .description("Entities decoded")
+                .register(registry);
+        this.itemsPerChunk = DistributionSummary.builder("items.decoder.chunk.items")
+                .description("Entities completed per input chunk")
+                .register(registry);
+        this.bytesPerItem = DistributionSummary.builder("items.decoder.item.size")
+                .baseUnit("bytes")
+                .description("Encoded size of each entity")
+                .register(registry);
+        this.parseTime = Timer.builder("items.decoder.parse")
+                .description("Time spent parsing each input chunk")
+                .register(registry);
+    }
+
+    @Override
+    public void chunkDecoded(int bytes, int items, long parseNanos) {
+        this.bytes.increment(bytes);
+        this.items.increment(items);
+        this.itemsPerChunk.record(items);
+        this.parseTime.record(parseNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void itemDecoded(long bytes) {
+        this.bytesPerItem.record(bytes);
+    }
+
+}
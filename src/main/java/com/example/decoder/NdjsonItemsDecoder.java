@@ -0,0 +1,352 @@
+package com.example.decoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.lang.Nullable;
+
+import com.example.decoder.DecoderLimits.Limit;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonEOFException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * Decodes newline delimited JSON, one element per line, with an optional
+ * error record <code>{"error":{...}}</code> as the last line.
+ * <p>
+ * Lines are split on the raw bytes. The complete lines of a chunk are parsed
+ * straight from that chunk with a single parser; only lines that span
+ * chunks are copied. Elements are bound with the entity binder if there is
+ * one, and read with the {@link ObjectReader} otherwise.
+ * <p>
+ * Unlike an envelope, a stream that breaks off exactly at the end of a line
+ * can't be told from a complete one. A last line that is cut off fails with
+ * an {@link IncompleteEnvelopeException}.
+ */
+final class NdjsonItemsDecoder<T> implements EntityDecoder<T> {
+
+    static final String ERROR_FIELD = "error";
+
+    private final StreamingEnvelopeDecoder<T> settings;
+    private final ObjectMapper objectMapper;
+    private final JsonFactory jsonFactory;
+    private final ObjectReader itemsReader;
+    private final ObjectReader errorReader;
+    private final FlatEntityBinder<T> entityBinder;
+    private final DecoderMetrics metrics;
+    private final boolean metricsEnabled;
+    private final DecoderLimits limits;
+    private final boolean limitsEnabled;
+
+    private byte[] scratchBuffer = ScratchBuffers.EMPTY;
+    private DataBuffer input;
+    private byte[] inputBytes;
+    private int inputPosition;
+    private int inputEnd;
+    private boolean inputEnded;
+    private long byteCount;
+    private long itemCount;
+
+    // the start of a line that continues in the next chunk
+    private byte[] partialLine = new byte[0];
+    private int partialLength;
+
+    // parses the complete lines of a chunk, or a line that spanned chunks
+    private JsonParser parser;
+    private boolean lastLine;
+
+    private ErrorDetail error;
+
+    // only maintained when metrics are enabled
+    private int chunkBytes;
+    private int chunkItems;
+    private long chunkNanos;
+
+    NdjsonItemsDecoder(StreamingEnvelopeDecoder<T> settings, FlatEntityBinder<T> entityBinder) {
+        this.settings = settings;
+        this.objectMapper = settings.getObjectMapper();
+        this.jsonFactory = this.objectMapper.getFactory();
+        this.itemsReader = settings.getItemsReader();
+        this.errorReader = settings.getErrorReader();
+        this.entityBinder = entityBinder;
+        this.metrics = settings.getMetrics();
+        this.metricsEnabled = this.metrics != DecoderMetrics.NONE;
+        this.limits = settings.getLimits();
+        this.limitsEnabled = this.limits.isEnabled();
+    }
+
+    @Override
+    public void feed(DataBuffer dataBuffer) {
+        this.input = dataBuffer;
+
+        ByteBuffer byteBuffer = dataBuffer.asByteBuffer();
+        int length = byteBuffer.remaining();
+        this.chunkBytes = length;
+        this.byteCount += length;
+        if (this.limitsEnabled && length > this.limits.getMaxBufferedBytes()) {
+            throw new DecoderLimitException(Limit.BUFFERED_BYTES,
+                    this.limits.getMaxBufferedBytes());
+        }
+        if (byteBuffer.hasArray()) {
+            this.inputBytes = byteBuffer.array();
+            this.inputPosition = byteBuffer.arrayOffset() + byteBuffer.position();
+        }
+        else {
+            if (this.scratchBuffer.length < length) {
+                this.scratchBuffer = ScratchBuffers.grow(this.scratchBuffer, length);
+            }
+            byteBuffer.get(this.scratchBuffer, 0, length);
+            this.inputBytes = this.scratchBuffer;
+            this.inputPosition = 0;
+        }
+        this.inputEnd = this.inputPosition + length;
+    }
+
+    @Override
+    public void endOfInput() {
+        this.inputEnded = true;
+    }
+
+    @Override
+    public boolean isInputEnded() {
+        return this.inputEnded;
+    }
+
+    @Override
+    public T next() throws IOException {
+        if (!this.metricsEnabled) {
+            return nextEntity();
+        }
+
+        long start = System.nanoTime();
+        T result = nextEntity();
+        this.chunkNanos += System.nanoTime() - start;
+
+        if (result != null) {
+            this.chunkItems++;
+        }
+        else if (this.chunkBytes != 0) {
+            this.metrics.chunkDecoded(this.chunkBytes, this.chunkItems, this.chunkNanos);
+            this.chunkBytes = 0;
+            this.chunkItems = 0;
+            this.chunkNanos = 0L;
+        }
+        return result;
+    }
+
+    private T nextEntity() throws IOException {
+        for (;;) {
+            if (this.parser != null) {
+                JsonToken token;
+                T entity;
+                try {
+                    token = this.parser.nextToken();
+                    entity = token != null ? readValue(token) : null;
+                } catch (JsonEOFException ex) {
+                    if (!this.lastLine) {
+                        throw ex;
+                    }
+                    throw new IncompleteEnvelopeException(this.itemCount, this.byteCount, ex);
+                }
+                if (token == null) {
+                    closeParser();
+                }
+                else if (entity != null) {
+                    this.itemCount++;
+                    if (this.limitsEnabled && this.itemCount > this.limits.getMaxItems()) {
+                        throw new DecoderLimitException(Limit.ITEMS, this.limits.getMaxItems());
+                    }
+                    return entity;
+                }
+            }
+            else if (this.input != null) {
+                byte[] bytes = this.inputBytes;
+                int start = this.inputPosition;
+                int end = this.inputEnd;
+                int newline = indexOf(bytes, start, end);
+                if (newline < 0) {
+                    appendPartialLine(bytes, start, end);
+                    releaseInput();
+                }
+                else if (this.partialLength != 0) {
+                    appendPartialLine(bytes, start, newline);
+                    this.inputPosition = newline + 1;
+                    this.parser = this.jsonFactory.createParser(this.partialLine, 0,
+                            this.partialLength);
+                    this.partialLength = 0;
+                }
+                else {
+                    // all complete lines of the chunk share one parser
+                    int last = newline;
+                    for (int i = newline; i >= 0; i = indexOf(bytes, i + 1, end)) {
+                        if (this.limitsEnabled && i - start > this.limits.getMaxEntityBytes()) {
+                            throw new DecoderLimitException(Limit.ENTITY_BYTES,
+                                    this.limits.getMaxEntityBytes());
+                        }
+                        start = i + 1;
+                        last = i;
+                    }
+                    this.parser = this.jsonFactory.createParser(bytes, this.inputPosition,
+                            last - this.inputPosition);
+                    this.inputPosition = last + 1;
+                }
+            }
+            else if (this.inputEnded && this.partialLength != 0) {
+                // the last line needn't end with a newline
+                this.parser = this.jsonFactory.createParser(this.partialLine, 0,
+                        this.partialLength);
+                this.partialLength = 0;
+                this.lastLine = true;
+            }
+            else {
+                return null;
+            }
+        }
+    }
+
+    private static int indexOf(byte[] bytes, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void appendPartialLine(byte[] bytes, int start, int end) {
+        int length = this.partialLength + end - start;
+        if (this.limitsEnabled && length > this.limits.getMaxEntityBytes()) {
+            throw new DecoderLimitException(Limit.ENTITY_BYTES, this.limits.getMaxEntityBytes());
+        }
+        if (this.partialLine.length < length) {
+            this.partialLine = Arrays.copyOf(this.partialLine,
+                    Math.max(length, 2 * this.partialLine.length));
+        }
+        System.arraycopy(bytes, start, this.partialLine, this.partialLength, end - start);
+        this.partialLength = length;
+    }
+
+    /**
+     * @return the element, or {@code null} for the error record
+     */
+    private T readValue(JsonToken token) throws IOException {
+        JsonParser parser = this.parser;
+        if (this.error != null) {
+            throw new JsonParseException(parser, "unexpected data after error record");
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "expected object");
+        }
+        long start = this.metricsEnabled ? parser.getTokenLocation().getByteOffset() : 0L;
+
+        token = parser.nextToken();
+        if (token == JsonToken.FIELD_NAME && ERROR_FIELD.equals(parser.getCurrentName())) {
+            parser.nextToken();
+            this.error = this.errorReader.readValue(parser);
+            parser.nextToken();
+            if (this.settings.isFailFast()) {
+                throw new ItemsErrorException(this.error);
+            }
+            return null;
+        }
+
+        T entity = this.entityBinder != null ? bindObject(parser, token) : readObject(parser, null);
+        if (this.metricsEnabled) {
+            this.metrics.itemDecoded(parser.getCurrentLocation().getByteOffset() - start);
+        }
+        return entity;
+    }
+
+    /**
+     * Binds the rest of the object with the entity binder, and falls back to
+     * the {@link ObjectReader} as soon as the binder rejects a field.
+     */
+    private T bindObject(JsonParser parser, JsonToken token) throws IOException {
+        T entity = this.entityBinder.create();
+        for (; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value.isStructStart() || !this.entityBinder.bindField(entity, name, parser)) {
+                // replay what has been bound so far, then copy the rest
+                TokenBuffer tokens = new TokenBuffer(parser);
+                tokens.writeStartObject();
+                this.entityBinder.replay(entity, tokens);
+                tokens.writeFieldName(name);
+                tokens.copyCurrentStructure(parser);
+                return readObject(parser, tokens);
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * Reads the rest of the object, after the given tokens, with the
+     * {@link ObjectReader}. Without tokens the parser points at the first
+     * field name or at the end of an empty object, otherwise at the end of
+     * the last field value copied.
+     */
+    private T readObject(JsonParser parser, @Nullable TokenBuffer tokens) throws IOException {
+        // the current token may end a nested value, so it doesn't tell whether the object ended
+        boolean ended = false;
+        if (tokens == null) {
+            tokens = new TokenBuffer(parser);
+            tokens.writeStartObject();
+            ended = parser.getCurrentToken() == JsonToken.END_OBJECT;
+            if (!ended) {
+                tokens.copyCurrentStructure(parser);
+            }
+        }
+        if (!ended) {
+            while (parser.nextToken() != JsonToken.END_OBJECT) {
+                tokens.copyCurrentStructure(parser);
+            }
+        }
+        tokens.writeEndObject();
+        return this.itemsReader.readValue(tokens.asParser(this.objectMapper));
+    }
+
+    @Override
+    public void finish() {
+        if (this.error != null) {
+            throw new ItemsErrorException(this.error);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        closeParser();
+        releaseInput();
+        ScratchBuffers.release(this.scratchBuffer);
+        this.scratchBuffer = ScratchBuffers.EMPTY;
+    }
+
+    private void closeParser() {
+        JsonParser parser = this.parser;
+        if (parser != null) {
+            this.parser = null;
+            try {
+                parser.close();
+            } catch (IOException ex) {
+                // nothing to release for a byte array
+            }
+        }
+    }
+
+    private void releaseInput() {
+        DataBuffer dataBuffer = this.input;
+        if (dataBuffer != null) {
+            this.input = null;
+            this.inputBytes = null;
+            DataBufferUtils.release(dataBuffer);
+        }
+    }
+
+}
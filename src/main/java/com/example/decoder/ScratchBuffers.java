@@ -0,0 +1,48 @@
+package com.example.decoder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pools the arrays that decoders copy direct buffers into, so that a
+ * response doesn't allocate its own array for a few chunks. Arrays are sized
+ * in powers of two from {@link #MIN_SIZE} on; larger ones than
+ * {@link #MAX_POOLED_SIZE} are left to the garbage collector.
+ */
+final class ScratchBuffers {
+
+    static final byte[] EMPTY = new byte[0];
+
+    static final int MIN_SIZE = 8192;
+
+    static final int MAX_POOLED_SIZE = 1 << 16;
+
+    private static final int MAX_POOLED = 16;
+
+    private static final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    private ScratchBuffers() {
+    }
+
+    /**
+     * Swaps the given array for one of at least {@code length} bytes. The
+     * contents are not copied.
+     */
+    static byte[] grow(byte[] buffer, int length) {
+        release(buffer);
+        byte[] pooled = buffers.poll();
+        if (pooled != null && pooled.length >= length) {
+            return pooled;
+        }
+        // too small for this decoder, but maybe not for the next one
+        release(pooled);
+        return new byte[Math.max(MIN_SIZE, Integer.highestOneBit(length - 1) << 1)];
+    }
+
+    static void release(byte[] buffer) {
+        if (buffer != null && buffer.length >= MIN_SIZE && buffer.length <= MAX_POOLED_SIZE) {
+            buffers.offer(buffer);
+        }
+    }
+
+}
@@ -0,0 +1,336 @@
+package com.example.decoder;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.AbstractDecoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.MediaType;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ConcurrentReferenceHashMap;
+import org.springframework.util.MimeType;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Decodes the elements of an envelope such as
+ * <code>{"items":[...],"error":{...}}</code> as they arrive, instead of
+ * reading the whole envelope into memory.
+ * <p>
+ * The element array and the error object are located by their field paths,
+ * e.g. {@code "items"} or {@code "data.items"} for an array nested in another
+ * object. An error object is reported as {@link ItemsErrorException} after
+ * all elements have been emitted, or as soon as it has been parsed in
+ * {@link #setFailFast(boolean) fail fast} mode.
+ * <p>
+ * The wire format follows the factory of the {@link ObjectMapper}: JSON, or
+ * Smile for an {@code ObjectMapper} built on a {@link SmileFactory}.
+ * Newline delimited JSON ({@link #APPLICATION_NDJSON} or
+ * {@code application/stream+json}) is read line by line instead, see
+ * {@link #decodeLines(Publisher)}.
+ * <p>
+ * Other envelope fields are rejected, unless they are ignored or captured,
+ * see {@link #setIgnoredFields(Collection)} and {@link EnvelopeFields}.
+ */
+public class StreamingEnvelopeDecoder<T> extends AbstractDecoder<T> {
+
+    /**
+     * Newline delimited JSON; {@code application/stream+json} is the same
+     * format.
+     */
+    public static final MediaType APPLICATION_NDJSON = new MediaType("application", "x-ndjson");
+
+    private static final MimeType[] JSON_MIME_TYPES = { MediaType.APPLICATION_JSON,
+            new MediaType("application", "*+json"), APPLICATION_NDJSON };
+    private static final MimeType[] SMILE_MIME_TYPES = {
+            new MediaType("application", "x-jackson-smile"),
+            new MediaType("application", "*+x-jackson-smile") };
+
+    // soft, since weak entries would be cleared by every GC while the mapper is still in use
+    private static final Map<ObjectMapper, Map<Class<?>, ObjectReader>> readerCache = new ConcurrentReferenceHashMap<>(
+            16, ConcurrentReferenceHashMap.ReferenceType.SOFT);
+
+    private final ObjectMapper objectMapper;
+    private final Class<T> elementType;
+    private final String[] itemsPath;
+    private final String[] errorPath;
+    private final ObjectReader itemsReader;
+    private final ObjectReader errorReader;
+
+    private FlatEntityBinder<T> entityBinder;
+    private DecoderMetrics metrics = DecoderMetrics.NONE;
+    private DecoderLimits limits = DecoderLimits.NONE;
+    private Set<String> ignoredFields = Collections.emptySet();
+    private boolean ignoreUnknownFields;
+    private boolean failFast;
+    private Scheduler bindingScheduler;
+    private int bindingConcurrency;
+    private int prefetchBytes;
+
+    public StreamingEnvelopeDecoder(ObjectMapper objectMapper, Class<T> elementType) {
+        this(objectMapper, elementType, "items", "error");
+    }
+
+    public StreamingEnvelopeDecoder(ObjectMapper objectMapper, Class<T> elementType,
+            String itemsPath, String errorPath) {
+        super(mimeTypesFor(objectMapper));
+        this.objectMapper = objectMapper;
+        this.elementType = elementType;
+        this.itemsPath = itemsPath.split("\\.");
+        this.errorPath = errorPath.split("\\.");
+        this.itemsReader = readerFor(objectMapper, elementType);
+        this.errorReader = readerFor(objectMapper, ErrorDetail.class);
+    }
+
+    private static MimeType[] mimeTypesFor(ObjectMapper objectMapper) {
+        return objectMapper.getFactory() instanceof SmileFactory ? SMILE_MIME_TYPES : JSON_MIME_TYPES;
+    }
+
+    private static ObjectReader readerFor(ObjectMapper objectMapper, Class<?> type) {
+        return readerCache.computeIfAbsent(objectMapper, m -> new ConcurrentHashMap<>())
+                .computeIfAbsent(type, objectMapper::readerFor);
+    }
+
+    /**
+     * Binds flat elements directly from parser tokens; elements the binder
+     * can't handle fall back to the {@link ObjectReader}.
+     */
+    public void setEntityBinder(FlatEntityBinder<T> entityBinder) {
+        this.entityBinder = entityBinder;
+    }
+
+    /**
+     * Reports chunk and entity statistics to the given listener.
+     */
+    public void setMetrics(DecoderMetrics metrics) {
+        this.metrics = metrics != null ? metrics : DecoderMetrics.NONE;
+    }
+
+    /**
+     * Fails the stream with a {@link DecoderLimitException} when the input
+     * exceeds one of the given limits.
+     */
+    public void setLimits(DecoderLimits limits) {
+        this.limits = limits != null ? limits : DecoderLimits.NONE;
+    }
+
+    /**
+     * Skips the values of these envelope fields.
+     */
+    public void setIgnoredFields(Collection<String> ignoredFields) {
+        this.ignoredFields = new HashSet<>(ignoredFields);
+    }
+
+    /**
+     * Skips the values of all unknown envelope fields, instead of failing.
+     */
+    public void setIgnoreUnknownFields(boolean ignoreUnknownFields) {
+        this.ignoreUnknownFields = ignoreUnknownFields;
+    }
+
+    /**
+     * Fails the stream as soon as the error object has been parsed, without
+     * reading the rest of the envelope. Upstream is cancelled and buffered
+     * input is released.
+     */
+    public void setFailFast(boolean failFast) {
+        this.failFast = failFast;
+    }
+
+    /**
+     * Binds elements on the given scheduler, with up to {@code concurrency}
+     * elements in flight, while the envelope is still parsed on the thread
+     * that receives the input. This only pays off for elements that are
+     * expensive to bind; the entity binder is not used in this mode.
+     */
+    public void setBindingScheduler(Scheduler scheduler, int concurrency) {
+        this.bindingScheduler = scheduler;
+        this.bindingConcurrency = concurrency;
+    }
+
+    /**
+     * Requests input ahead of the decoder until this many bytes are queued,
+     * so that reading and decoding overlap. Chunks are still requested one at
+     * a time and decoded in order, and nothing beyond the prefetch is read
+     * while downstream has no demand. By default no input is prefetched.
+     * <p>
+     * The {@link DecoderLimits#withMaxBufferedBytes buffered bytes} limit
+     * applies to the queued chunks together with the chunk being decoded.
+     */
+    public void setPrefetchBytes(int prefetchBytes) {
+        this.prefetchBytes = prefetchBytes;
+    }
+
+    @Override
+    public boolean canDecode(ResolvableType elementType, @Nullable MimeType mimeType) {
+        return this.elementType.equals(elementType.resolve()) && super.canDecode(elementType, mimeType);
+    }
+
+    @Override
+    public Flux<T> decode(Publisher<DataBuffer> inputStream, ResolvableType elementType,
+            @Nullable MimeType mimeType, @Nullable Map<String, Object> hints) {
+        if (isLineDelimited(mimeType)) {
+            return decodeLines(inputStream);
+        }
+        return decode(inputStream);
+    }
+
+    private static boolean isLineDelimited(@Nullable MimeType mimeType) {
+        return mimeType != null && (APPLICATION_NDJSON.isCompatibleWith(mimeType)
+                || MediaType.APPLICATION_STREAM_JSON.isCompatibleWith(mimeType));
+    }
+
+    @Override
+    public Mono<T> decodeToMono(Publisher<DataBuffer> inputStream, ResolvableType elementType,
+            @Nullable MimeType mimeType, @Nullable Map<String, Object> hints) {
+        return decode(inputStream, elementType, mimeType, hints).singleOrEmpty();
+    }
+
+    public Flux<T> decode(Publisher<DataBuffer> dataBuffers) {
+        return decode(dataBuffers, (EnvelopeFields) null);
+    }
+
+    /**
+     * Decodes the elements and captures the given envelope fields on the
+     * side.
+     */
+    public Flux<T> decode(Publisher<DataBuffer> dataBuffers, @Nullable EnvelopeFields fields) {
+        if (this.bindingScheduler != null) {
+            return decodeInParallel(dataBuffers, fields, this.bindingScheduler,
+                    this.bindingConcurrency);
+        }
+        return decodeWith(dataBuffers, () -> createDecoder(this::readElement, this.entityBinder,
+                fields));
+    }
+
+    /**
+     * Decodes newline delimited JSON, one element per line, with an optional
+     * error record <code>{"error":{...}}</code> as the last line. The
+     * element count and entity size limits apply to lines; the binding
+     * scheduler is not used.
+     */
+    public Flux<T> decodeLines(Publisher<DataBuffer> dataBuffers) {
+        if (this.objectMapper.getFactory() instanceof SmileFactory) {
+            return Flux.error(new IllegalStateException("Smile content is not line delimited"));
+        }
+        return decodeWith(dataBuffers, () -> new NdjsonItemsDecoder<>(this, this.entityBinder));
+    }
+
+    private Flux<T> decodeInParallel(Publisher<DataBuffer> dataBuffers, EnvelopeFields fields,
+            Scheduler scheduler, int concurrency) {
+        return decodeWith(dataBuffers,
+                () -> this.<TokenBuffer> createDecoder(tokens -> tokens, null, fields))
+                .flatMapSequentialDelayError(tokens -> Mono.fromCallable(() -> readElement(tokens))
+                        .subscribeOn(scheduler)
+                        .materialize(), concurrency, 1)
+                // binding errors are passed on as values, so that they stay in order
+                // with the elements and ahead of an error from the envelope
+                .handle((signal, sink) -> {
+                    if (signal.isOnNext()) {
+                        sink.next(signal.get());
+                    }
+                    else if (signal.isOnError()) {
+                        Throwable ex = signal.getThrowable();
+                        if (ex instanceof JsonProcessingException) {
+                            ex = new IllegalStateException("Could not parse message response: "
+                                    + ((JsonProcessingException) ex).getOriginalMessage(), ex);
+                        }
+                        sink.error(ex);
+                    }
+                });
+    }
+
+    /**
+     * Creates a decoder for one envelope that uses the given binder for its
+     * elements.
+     */
+    ItemsDecoder<T> createDecoder(FlatEntityBinder<T> binder) throws IOException {
+        return createDecoder(this::readElement, binder, null);
+    }
+
+    private <E> ItemsDecoder<E> createDecoder(ItemsDecoder.EntityReader<E> reader,
+            FlatEntityBinder<E> binder, EnvelopeFields fields) throws IOException {
+        return new ItemsDecoder<>(this, reader, binder, fields);
+    }
+
+    /**
+     * Drives a decoder created per subscription, with the prefetch and
+     * buffer limit of this codec.
+     */
+    <E> Flux<E> decodeWith(Publisher<DataBuffer> dataBuffers,
+            Callable<? extends EntityDecoder<E>> decoderFactory) {
+        return Flux.defer(() -> {
+            EntityDecoder<E> decoder;
+            try {
+                decoder = decoderFactory.call();
+            } catch (Exception e) {
+                return Flux.error(e);
+            }
+
+            // read on subscribe, like the settings the decoder takes
+            int prefetchBytes = this.prefetchBytes;
+            long maxBufferedBytes = this.limits.getMaxBufferedBytes();
+            return Flux.<E> from(actual -> dataBuffers.subscribe(
+                    new ItemsDecoderSubscriber<>(Operators.toCoreSubscriber(actual), decoder,
+                            prefetchBytes, maxBufferedBytes)));
+        });
+    }
+
+    private T readElement(TokenBuffer tokens) throws IOException {
+        return this.itemsReader.readValue(tokens.asParser(this.objectMapper));
+    }
+
+    ObjectMapper getObjectMapper() {
+        return this.objectMapper;
+    }
+
+    ObjectReader getItemsReader() {
+        return this.itemsReader;
+    }
+
+    ObjectReader getErrorReader() {
+        return this.errorReader;
+    }
+
+    String[] getItemsPath() {
+        return this.itemsPath;
+    }
+
+    String[] getErrorPath() {
+        return this.errorPath;
+    }
+
+    DecoderMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    DecoderLimits getLimits() {
+        return this.limits;
+    }
+
+    boolean isFailFast() {
+        return this.failFast;
+    }
+
+    boolean isIgnoredField(String name) {
+        return this.ignoreUnknownFields || this.ignoredFields.contains(name);
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.example.decoder.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.example.decoder.Item;
+
+/**
+ * Records a running digest of the items of the latest response, so responses
+ * of any size can be verified in constant memory.
+ */
+public class DigestItemsRecorder implements ItemsRecorder {
+
+    private MessageDigest digest = newDigest();
+    private long count;
+
+    @Override
+    public synchronized void start() {
+        this.digest = newDigest();
+        this.count = 0L;
+    }
+
+    @Override
+    public synchronized void record(Item item) {
+        update(this.digest, item);
+        this.count++;
+    }
+
+    public synchronized long getCount() {
+        return this.count;
+    }
+
+    public synchronized byte[] getDigest() {
+        try {
+            return ((MessageDigest) this.digest.clone()).digest();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static byte[] digestOf(Iterable<Item> items) {
+        MessageDigest digest = newDigest();
+        for (Item item : items) {
+            update(digest, item);
+        }
+        return digest.digest();
+    }
+
+    private static void update(MessageDigest digest, Item item) {
+        String uuid = item.getUuid();
+        if (uuid == null) {
+            digest.update((byte) 1);
+        }
+        else {
+            digest.update((byte) 0);
+            digest.update(uuid.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
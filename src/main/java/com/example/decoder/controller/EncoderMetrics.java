@@ -0,0 +1,21 @@
+package com.example.decoder.controller;
+
+/**
+ * Listener for what an {@link ItemsResponseEncoder} writes. Callbacks run on
+ * the encoding thread and should not block.
+ */
+public interface EncoderMetrics {
+
+    EncoderMetrics NONE = new EncoderMetrics() {
+    };
+
+    /**
+     * Called when a batch has been flushed into a response buffer.
+     *
+     * @param items the number of items in the batch, 0 for the envelope end
+     * @param bytes the number of bytes flushed
+     */
+    default void batchWritten(int items, long bytes) {
+    }
+
+}
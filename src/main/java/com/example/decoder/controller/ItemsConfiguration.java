@@ -1,8 +1,12 @@
 package com.example.decoder.controller;
 
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.http.codec.ServerCodecConfigurer;
 import org.springframework.http.codec.json.Jackson2JsonDecoder;
 import org.springframework.http.codec.json.Jackson2JsonEncoder;
@@ -10,7 +14,9 @@ import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.web.reactive.config.EnableWebFlux;
 import org.springframework.web.reactive.config.WebFluxConfigurer;
 
-import com.example.decoder.ItemsEntity;
+import com.example.decoder.Item;
+import com.example.decoder.ItemBinder;
+import com.example.decoder.StreamingEnvelopeDecoder;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -24,18 +30,48 @@ public class ItemsConfiguration implements WebFluxConfigurer {
             .serializationInclusion(Include.NON_EMPTY)
             .build();
 
+    private final ObjectMapper smileObjectMapper = Jackson2ObjectMapperBuilder
+            .smile()
+            .serializationInclusion(Include.NON_EMPTY)
+            .build();
+
     @Bean
-    public ItemsEntity testValueHolder() {
-        return new ItemsEntity();
+    public ResponseCache responseCache(@Value("${items.cacheBytes:0}") long maxBytes,
+            @Value("${items.cacheTtlSeconds:60}") long timeToLiveSeconds) {
+        return new ResponseCache(maxBytes, Duration.ofSeconds(timeToLiveSeconds));
     }
 
     @Bean
+    @Primary
     public ObjectMapper getObjectMapper() {
         return this.objectMapper;
     }
 
+    @Bean
+    public ObjectMapper smileObjectMapper() {
+        return this.smileObjectMapper;
+    }
+
+    @Bean
+    public StreamingEnvelopeDecoder<Item> itemsDecoder() {
+        StreamingEnvelopeDecoder<Item> decoder = new StreamingEnvelopeDecoder<>(
+                this.objectMapper, Item.class);
+        decoder.setEntityBinder(new ItemBinder());
+        return decoder;
+    }
+
+    @Bean
+    public StreamingEnvelopeDecoder<Item> smileItemsDecoder() {
+        StreamingEnvelopeDecoder<Item> decoder = new StreamingEnvelopeDecoder<>(
+                this.smileObjectMapper, Item.class);
+        decoder.setEntityBinder(new ItemBinder());
+        return decoder;
+    }
+
     @Override
     public void configureHttpMessageCodecs(ServerCodecConfigurer configurer) {
+        configurer.customCodecs().decoder(itemsDecoder());
+        configurer.customCodecs().decoder(smileItemsDecoder());
         configurer.defaultCodecs().jackson2JsonDecoder(
                 new Jackson2JsonDecoder(this.objectMapper));
         configurer.defaultCodecs().jackson2JsonEncoder(
@@ -2,24 +2,30 @@ package com.example.decoder.controller;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.util.List;
-import java.util.UUID;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
+import com.example.decoder.CompactItem;
 import com.example.decoder.Item;
-import com.example.decoder.ItemsEntity;
+import com.example.decoder.StreamingEnvelopeDecoder;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -29,29 +35,202 @@ import reactor.core.publisher.Mono;
 @RestController
 public class ItemsController {
 
-    @Autowired
-    private ItemsEntity testValueHolder;
+    static final String SMILE_VALUE = "application/x-jackson-smile";
+
+    static final MediaType SMILE = MediaType.valueOf(SMILE_VALUE);
+
+    static final String NDJSON_VALUE = "application/x-ndjson";
+
+    /**
+     * Response header with the seed of the generated items. Passing it back
+     * with an offset continues the same sequence, e.g. to resume a broken
+     * transfer.
+     */
+    public static final String SEED_HEADER = "X-Items-Seed";
+
+    @Autowired(required = false)
+    private ItemsRecorder itemsRecorder;
+
+    @Autowired(required = false)
+    private EncoderMetrics encoderMetrics = EncoderMetrics.NONE;
+
+    /**
+     * Serves repeated requests for a seeded sequence from memory. Items of
+     * a cached response are not generated, so the {@link ItemsRecorder}
+     * doesn't see them.
+     */
+    @Autowired(required = false)
+    private ResponseCache responseCache;
 
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    @Qualifier("smileObjectMapper")
+    private ObjectMapper smileObjectMapper;
+
+    /**
+     * Maximum number of items written into one buffer; with ~50 bytes per
+     * item the default batch fits into the default buffer size. Larger items
+     * are spread over more buffers, see {@link #bufferSize}.
+     */
+    @Value("${items.batchSize:128}")
+    private int batchSize;
+
+    /**
+     * Size of each response buffer, in the order of the socket send buffer
+     * size. A buffer ends with the item that reaches this size, even if the
+     * batch has more items.
+     */
+    @Value("${items.bufferSize:8192}")
+    private int bufferSize;
+
+    /**
+     * Generates {@link CompactItem}s, which are written without creating
+     * uuid strings.
+     */
+    @Value("${items.compact:false}")
+    private boolean compactItems;
+
+    /**
+     * Compresses responses for clients that accept gzip or deflate. Off by
+     * default, so that the content encoding of existing clients that send
+     * {@code Accept-Encoding} doesn't change.
+     */
+    @Value("${items.compression:false}")
+    private boolean compression;
+
+    /**
+     * The {@link java.util.zip.Deflater} level. Random uuids hardly compress
+     * better at higher levels, which cost several times the CPU time.
+     */
+    @Value("${items.compressionLevel:1}")
+    private int compressionLevel;
+
+    /**
+     * Streams items {@code offset} to {@code count - 1} of the sequence with
+     * the given seed, or of a new sequence if there is no seed.
+     */
     @GetMapping(value = "/items/{count}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public Mono<Void> getItems(@PathVariable Integer count, ServerHttpResponse response) {
-        List<Item> items = IntStream.range(0, count)
-                .mapToObj(i -> UUID.randomUUID().toString())
-                .map(Item::new)
-                .collect(Collectors.toList());
-        this.testValueHolder.setItems(items);
-        return toResponse(response, Flux.fromIterable(items));
+    public Mono<Void> getItems(@PathVariable Integer count,
+            @RequestParam(defaultValue = "0") int offset, @RequestParam(required = false) Long seed,
+            @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            ServerHttpResponse response) {
+        return toResponse(response, generateItems(count, offset, seed, response), this.objectMapper,
+                MediaType.APPLICATION_JSON, acceptEncoding,
+                cacheKey(MediaType.APPLICATION_JSON, count, offset, seed));
+    }
+
+    @GetMapping(value = "/items/{count}", produces = SMILE_VALUE)
+    public Mono<Void> getItemsSmile(@PathVariable Integer count,
+            @RequestParam(defaultValue = "0") int offset, @RequestParam(required = false) Long seed,
+            @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            ServerHttpResponse response) {
+        return toResponse(response, generateItems(count, offset, seed, response),
+                this.smileObjectMapper, SMILE, acceptEncoding, cacheKey(SMILE, count, offset, seed));
+    }
+
+    /**
+     * Streams the items as newline delimited JSON, with an error as a
+     * trailing <code>{"error":{...}}</code> line.
+     */
+    @GetMapping(value = "/items/{count}", produces = NDJSON_VALUE)
+    public Mono<Void> getItemsNdjson(@PathVariable Integer count,
+            @RequestParam(defaultValue = "0") int offset, @RequestParam(required = false) Long seed,
+            @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            ServerHttpResponse response) {
+        return toResponse(response, generateItems(count, offset, seed, response),
+                new NdjsonResponseEncoder(this.objectMapper, this.encoderMetrics),
+                StreamingEnvelopeDecoder.APPLICATION_NDJSON, acceptEncoding,
+                cacheKey(StreamingEnvelopeDecoder.APPLICATION_NDJSON, count, offset, seed));
+    }
+
+    private Flux<?> generateItems(int count, int offset, Long seed, ServerHttpResponse response) {
+        if (offset < 0 || offset > count) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "offset out of range");
+        }
+        long itemsSeed = seed != null ? seed : ThreadLocalRandom.current().nextLong();
+        response.getHeaders().set(SEED_HEADER, Long.toString(itemsSeed));
+
+        ItemsRecorder recorder = this.itemsRecorder;
+        Flux<CompactItem> items = Flux.range(offset, count - offset)
+                .map(i -> CompactItem.seeded(itemsSeed, i));
+        if (this.compactItems) {
+            return recorder != null ? record(items, recorder, CompactItem::toItem) : items;
+        }
+
+        Flux<Item> stringItems = items.map(CompactItem::toItem);
+        return recorder != null ? record(stringItems, recorder, Function.identity()) : stringItems;
+    }
+
+    /**
+     * Only seeded sequences repeat, so other requests are not cached.
+     */
+    private String cacheKey(MediaType contentType, int count, int offset, Long seed) {
+        if (this.responseCache == null || !this.responseCache.isEnabled() || seed == null) {
+            return null;
+        }
+        return contentType + " " + count + " " + offset + " " + seed;
+    }
+
+    private static <T> Flux<T> record(Flux<T> items, ItemsRecorder recorder,
+            Function<T, Item> toItem) {
+        return items
+                .doOnSubscribe(s -> recorder.start())
+                .doOnNext(item -> recorder.record(toItem.apply(item)));
+    }
+
+    private <T> Mono<Void> toResponse(ServerHttpResponse response, Flux<T> items,
+            ObjectMapper objectMapper, MediaType contentType, String acceptEncoding,
+            String cacheKey) {
+        return toResponse(response, items,
+                new ItemsResponseEncoder(objectMapper, this.encoderMetrics), contentType,
+                acceptEncoding, cacheKey);
     }
 
-    private Mono<Void> toResponse(ServerHttpResponse response, Flux<Item> items) {
-        ItemsResponseEncoder builder = new ItemsResponseEncoder(
-                this.objectMapper);
+    private <T> Mono<Void> toResponse(ServerHttpResponse response, Flux<T> items,
+            ItemsEncoder builder, MediaType contentType, String acceptEncoding,
+            String cacheKey) {
+        response.getHeaders().setContentType(contentType);
+
+        Flux<DataBuffer> body = null;
+        if (cacheKey != null) {
+            body = this.responseCache.get(cacheKey, response.bufferFactory());
+        }
+        if (body == null) {
+            body = encode(response, items, builder);
+            if (cacheKey != null) {
+                body = this.responseCache.record(cacheKey, body);
+            }
+        }
+
+        if (this.compression) {
+            response.getHeaders().set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            String encoding = ResponseCompressor.negotiate(acceptEncoding);
+            if (encoding != null) {
+                response.getHeaders().set(HttpHeaders.CONTENT_ENCODING, encoding);
+                body = ResponseCompressor.compress(body, encoding, this.compressionLevel,
+                        response.bufferFactory());
+            }
+        }
+        return response.writeWith(body);
+    }
 
-        Flux<DataBuffer> body = items //
-                .map(item -> writeJsonToBuffer(response.bufferFactory(),
-                        w -> builder.addItem(w, item)))
+    private <T> Flux<DataBuffer> encode(ServerHttpResponse response, Flux<T> items,
+            ItemsEncoder builder) {
+        return items //
+                .buffer(this.batchSize)
+                .concatMap(batch -> {
+                    Iterator<?> batchItems = batch.iterator();
+                    // buffers are written on demand, so a cancel leaves none behind
+                    return Flux.<DataBuffer> generate(sink -> {
+                        sink.next(writeJsonToBuffer(response.bufferFactory(),
+                                out -> builder.addItems(out, batchItems, this.bufferSize)));
+                        if (!batchItems.hasNext()) {
+                            sink.complete();
+                        }
+                    });
+                })
                 .concatWith(Mono.fromSupplier(() -> writeJsonToBuffer(
                         response.bufferFactory(), builder::finish)))
                 .onErrorResume(t -> {
@@ -60,7 +239,8 @@ public class ItemsController {
                         return Mono.error(t);
                     }
                     if (builder.isFinished()) {
-                        // too late to write error to response
+                        // too late to write error to response, or the output
+                        // ends in a broken item
                         return Mono.error(t);
                     }
                     builder.setError(t.getMessage());
@@ -68,29 +248,31 @@ public class ItemsController {
                             .just(writeJsonToBuffer(response.bufferFactory(), builder::finish))
                             .concatWith(Mono.error(t));
                 });
-
-        return response.writeWith(body);
     }
 
     private DataBuffer writeJsonToBuffer(DataBufferFactory bufferFactory,
             JsonBuilder jsonBuilder) {
-        DataBuffer buffer = bufferFactory.allocateBuffer();
-        OutputStream stream = buffer.asOutputStream();
+        DataBuffer buffer = bufferFactory.allocateBuffer(this.bufferSize);
 
-        try (OutputStreamWriter w = new OutputStreamWriter(stream, "UTF-8")) {
-            jsonBuilder.accept(w);
+        try {
+            jsonBuilder.accept(buffer.asOutputStream());
         } catch (JsonProcessingException e) {
+            DataBufferUtils.release(buffer);
             throw new IllegalStateException(
                     "Could not generate JSON: " + e.getOriginalMessage(), e);
         } catch (IOException e) {
+            DataBufferUtils.release(buffer);
             throw new IllegalStateException(
                     "Unexpected error while writing to memory", e);
+        } catch (RuntimeException e) {
+            DataBufferUtils.release(buffer);
+            throw e;
         }
         return buffer;
     }
 
     private interface JsonBuilder {
-        void accept(Writer w) throws IOException;
+        void accept(OutputStream out) throws IOException;
     }
 
 }
@@ -0,0 +1,36 @@
+package com.example.decoder.controller;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+/**
+ * Writes a stream of items in batches, each into a new output stream, and
+ * reports an error after the items if one is set before {@link #finish}.
+ */
+public interface ItemsEncoder {
+
+    boolean isStarted();
+
+    /**
+     * Whether nothing more can be written, after {@link #finish} or after a
+     * batch failed partway through.
+     */
+    boolean isFinished();
+
+    void setError(String message);
+
+    default void addItems(OutputStream out, Iterable<?> items) throws IOException {
+        addItems(out, items.iterator(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Writes items until there are no more or {@code maxBytes} have been
+     * written, so a buffer exceeds the limit by at most one item. The
+     * remaining items are left in the iterator for the next output stream.
+     */
+    void addItems(OutputStream out, Iterator<?> items, int maxBytes) throws IOException;
+
+    void finish(OutputStream out) throws IOException;
+
+}
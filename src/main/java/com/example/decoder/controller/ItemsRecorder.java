@@ -0,0 +1,18 @@
+package com.example.decoder.controller;
+
+import com.example.decoder.Item;
+
+/**
+ * Optional hook that sees every item written by {@link ItemsController},
+ * e.g. to verify what a client has received.
+ */
+public interface ItemsRecorder {
+
+    /**
+     * Called when a response starts streaming its items.
+     */
+    void start();
+
+    void record(Item item);
+
+}
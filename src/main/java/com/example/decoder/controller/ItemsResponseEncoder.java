@@ -1,78 +1,126 @@
 package com.example.decoder.controller;
 
 import java.io.IOException;
-import java.io.Writer;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicLong;
 
+import com.example.decoder.CompactItem;
 import com.example.decoder.ErrorDetail;
 import com.example.decoder.Item;
-import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonGenerator.Feature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-public class ItemsResponseEncoder {
+/**
+ * Writes an items envelope in batches. A single generator is kept for the
+ * whole response; each batch is flushed into the given output stream.
+ */
+public class ItemsResponseEncoder implements ItemsEncoder {
 
-    private final JsonFactory jsonFactory;
+    private final RetargetableOutputStream output = new RetargetableOutputStream();
+    private final JsonGenerator generator;
+    private final EncoderMetrics metrics;
     private final AtomicLong count = new AtomicLong();
     private volatile String error;
     private volatile boolean finished;
 
     public ItemsResponseEncoder(ObjectMapper objectMapper) {
-        JsonFactory jsonFactory = new JsonFactory(objectMapper);
-        jsonFactory.disable(Feature.AUTO_CLOSE_TARGET);
-        this.jsonFactory = jsonFactory;
+        this(objectMapper, EncoderMetrics.NONE);
     }
 
+    public ItemsResponseEncoder(ObjectMapper objectMapper, EncoderMetrics metrics) {
+        this.metrics = metrics;
+        try {
+            this.generator = objectMapper.getFactory()
+                    .createGenerator(this.output, JsonEncoding.UTF8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.generator.disable(Feature.AUTO_CLOSE_TARGET);
+    }
+
+    @Override
     public boolean isStarted() {
         return this.finished || this.error != null || this.count.get() != 0L;
     }
 
+    @Override
     public boolean isFinished() {
         return this.finished;
     }
 
+    @Override
     public void setError(String message) {
         this.error = message;
     }
 
-    public void addItem(Writer w, Item item) throws IOException {
-        if (this.count.getAndIncrement() == 0L) {
-            w.append("{\"items\":[");
-        }
-        else {
-            w.append(',');
+    /**
+     * Writes a batch of items, e.g. {@link Item}s or {@link CompactItem}s.
+     */
+    @Override
+    public void addItems(OutputStream out, Iterator<?> items, int maxBytes) throws IOException {
+        this.output.setTarget(out);
+        try {
+            int batchSize = 0;
+            while (items.hasNext() && bufferedBytes() < maxBytes) {
+                Object item = items.next();
+                if (this.count.getAndIncrement() == 0L) {
+                    this.generator.writeStartObject();
+                    this.generator.writeFieldName("items");
+                    this.generator.writeStartArray();
+                }
+                this.generator.writeObject(item);
+                batchSize++;
+            }
+            this.generator.flush();
+            this.metrics.batchWritten(batchSize, this.output.takeWritten());
+        } catch (IOException | RuntimeException ex) {
+            // the generator may be inside a partly written item, and the buffer
+            // with the batch is dropped, so no valid end can follow
+            this.finished = true;
+            throw ex;
+        } finally {
+            this.output.setTarget(null);
         }
+    }
 
-        try (JsonGenerator gen = this.jsonFactory.createGenerator(w)) {
-            gen.writeObject(item);
-        }
+    /**
+     * The bytes of the current batch, flushed or not. A generator that can't
+     * tell its buffered bytes is only cut off after each flush of its buffer.
+     */
+    private long bufferedBytes() {
+        return this.output.getWritten() + Math.max(0, this.generator.getOutputBuffered());
     }
 
-    public void finish(Writer w) throws IOException {
+    @Override
+    public void finish(OutputStream out) throws IOException {
         this.finished = true;
 
-        long resultSize = this.count.get();
-        if (resultSize == 0L) {
-            w.append('{');
-        }
-        else {
-            w.append("]");
-        }
-
-        String message = this.error;
-        if (message != null) {
-            ErrorDetail errorDetail = new ErrorDetail(message);
-            if (resultSize != 0L) {
-                w.append(",");
+        this.output.setTarget(out);
+        try {
+            long resultSize = this.count.get();
+            if (resultSize == 0L) {
+                this.generator.writeStartObject();
             }
-            w.append("\"error\":");
-            try (JsonGenerator gen = this.jsonFactory.createGenerator(w)) {
-                gen.writeObject(errorDetail);
+            else {
+                this.generator.writeEndArray();
             }
-        }
 
-        w.append('}');
+            String message = this.error;
+            if (message != null) {
+                this.generator.writeFieldName("error");
+                this.generator.writeObject(new ErrorDetail(message));
+            }
+
+            this.generator.writeEndObject();
+            this.generator.close();
+            this.metrics.batchWritten(0, this.output.takeWritten());
+        } finally {
+            this.output.setTarget(null);
+        }
     }
 
 }
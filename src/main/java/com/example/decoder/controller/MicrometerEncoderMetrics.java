@@ -0,0 +1,31 @@
+package com.example.decoder.controller;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Publishes {@link EncoderMetrics} to a Micrometer {@link MeterRegistry}.
+ */
+public class MicrometerEncoderMetrics implements EncoderMetrics {
+
+    private final Counter items;
+    private final DistributionSummary bufferSize;
+
+    public MicrometerEncoderMetrics(MeterRegistry registry) {
+        this.items = Counter.builder("items.encoder.items")
+                .description("Items written")
+                .register(registry);
+        this.bufferSize = DistributionSummary.builder("items.encoder.buffer.size")
+                .baseUnit("bytes")
+                .description("Bytes flushed into each response buffer")
+                .register(registry);
+    }
+
+    @Override
+    public void batchWritten(int items, long bytes) {
+        this.items.increment(items);
+        this.bufferSize.record(bytes);
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.example.decoder.controller;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.example.decoder.ErrorDetail;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonGenerator.Feature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes items as newline delimited JSON, one item per line. An error is
+ * written as a last line of the form <code>{"error":{...}}</code>.
+ */
+public class NdjsonResponseEncoder implements ItemsEncoder {
+
+    private final RetargetableOutputStream output = new RetargetableOutputStream();
+    private final JsonGenerator generator;
+    private final EncoderMetrics metrics;
+    private final AtomicLong count = new AtomicLong();
+    private volatile String error;
+    private volatile boolean finished;
+
+    public NdjsonResponseEncoder(ObjectMapper objectMapper) {
+        this(objectMapper, EncoderMetrics.NONE);
+    }
+
+    public NdjsonResponseEncoder(ObjectMapper objectMapper, EncoderMetrics metrics) {
+        this.metrics = metrics;
+        try {
+            this.generator = objectMapper.getFactory()
+                    .createGenerator(this.output, JsonEncoding.UTF8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.generator.disable(Feature.AUTO_CLOSE_TARGET);
+        // lines are terminated explicitly instead
+        this.generator.setRootValueSeparator(null);
+    }
+
+    @Override
+    public boolean isStarted() {
+        return this.finished || this.error != null || this.count.get() != 0L;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return this.finished;
+    }
+
+    @Override
+    public void setError(String message) {
+        this.error = message;
+    }
+
+    @Override
+    public void addItems(OutputStream out, Iterator<?> items, int maxBytes) throws IOException {
+        this.output.setTarget(out);
+        try {
+            int batchSize = 0;
+            while (items.hasNext() && bufferedBytes() < maxBytes) {
+                Object item = items.next();
+                this.count.incrementAndGet();
+                this.generator.writeObject(item);
+                this.generator.writeRaw('\n');
+                batchSize++;
+            }
+            this.generator.flush();
+            this.metrics.batchWritten(batchSize, this.output.takeWritten());
+        } catch (IOException | RuntimeException ex) {
+            // the generator may be inside a partly written item, and the buffer
+            // with the batch is dropped, so no valid end can follow
+            this.finished = true;
+            throw ex;
+        } finally {
+            this.output.setTarget(null);
+        }
+    }
+
+    /**
+     * The bytes of the current batch, flushed or not. A generator that can't
+     * tell its buffered bytes is only cut off after each flush of its buffer.
+     */
+    private long bufferedBytes() {
+        return this.output.getWritten() + Math.max(0, this.generator.getOutputBuffered());
+    }
+
+    @Override
+    public void finish(OutputStream out) throws IOException {
+        this.finished = true;
+
+        this.output.setTarget(out);
+        try {
+            String message = this.error;
+            if (message != null) {
+                this.generator.writeStartObject();
+                this.generator.writeFieldName("error");
+                this.generator.writeObject(new ErrorDetail(message));
+                this.generator.writeEndObject();
+                this.generator.writeRaw('\n');
+            }
+            this.generator.close();
+            this.metrics.batchWritten(0, this.output.takeWritten());
+        } finally {
+            this.output.setTarget(null);
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+package com.example.decoder.controller;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.lang.Nullable;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Keeps the encoded bodies of responses that are requested again, such as
+ * a seeded item sequence, so that a repeated request is written from memory
+ * instead of serializing its items once more.
+ * <p>
+ * A body is stored in a single array, together with the boundaries of the
+ * buffers it was written in. A cache hit is written as read-only buffers
+ * that wrap slices of that array, without copying. Only bodies that
+ * completed normally are stored; a response that failed or was cancelled is
+ * left out. The least recently used bodies are evicted once the stored
+ * bytes exceed the limit, and bodies expire after the time to live.
+ */
+public class ResponseCache {
+
+    private final long maxBytes;
+    private final long timeToLiveNanos;
+
+    // access ordered, guarded by itself
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * @param maxBytes the limit for all stored bodies together, {@code 0} to
+     *        disable the cache
+     */
+    public ResponseCache(long maxBytes, Duration timeToLive) {
+        this.maxBytes = maxBytes;
+        this.timeToLiveNanos = timeToLive.toNanos();
+    }
+
+    public boolean isEnabled() {
+        return this.maxBytes > 0;
+    }
+
+    /**
+     * Returns the stored body for the key, or {@code null} if there is none.
+     */
+    @Nullable
+    public Flux<DataBuffer> get(String key, DataBufferFactory bufferFactory) {
+        Entry entry;
+        synchronized (this.entries) {
+            entry = this.entries.get(key);
+            if (entry != null && System.nanoTime() - entry.created > this.timeToLiveNanos) {
+                remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                this.missCount++;
+                return null;
+            }
+            this.hitCount++;
+        }
+        return entry.toDataBuffers(bufferFactory);
+    }
+
+    /**
+     * Passes the body on and stores a copy of it under the key once it has
+     * completed.
+     */
+    public Flux<DataBuffer> record(String key, Flux<DataBuffer> body) {
+        return Flux.defer(() -> {
+            Recording recording = new Recording(this.maxBytes);
+            return body
+                    .doOnNext(recording::append)
+                    .doOnComplete(() -> {
+                        if (!recording.isOverflown()) {
+                            put(key, recording.toEntry());
+                        }
+                    });
+        });
+    }
+
+    private void put(String key, Entry entry) {
+        synchronized (this.entries) {
+            remove(key);
+            this.entries.put(key, entry);
+            this.size += entry.storage.length;
+            Iterator<Entry> eldest = this.entries.values().iterator();
+            while (this.size > this.maxBytes && eldest.hasNext()) {
+                this.size -= eldest.next().storage.length;
+                eldest.remove();
+            }
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = this.entries.remove(key);
+        if (entry != null) {
+            this.size -= entry.storage.length;
+        }
+    }
+
+    /**
+     * The number of bytes in all stored bodies.
+     */
+    public long getSize() {
+        synchronized (this.entries) {
+            return this.size;
+        }
+    }
+
+    public int getEntryCount() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        synchronized (this.entries) {
+            return this.hitCount;
+        }
+    }
+
+    public long getMissCount() {
+        synchronized (this.entries) {
+            return this.missCount;
+        }
+    }
+
+    public void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+            this.size = 0L;
+        }
+    }
+
+    /**
+     * Copies the buffers of a body while it is written.
+     */
+    private static final class Recording {
+
+        private final long maxBytes;
+        private byte[] storage = new byte[8192];
+        private int length;
+        private int[] ends = new int[16];
+        private int count;
+        private boolean overflown;
+
+        Recording(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        void append(DataBuffer dataBuffer) {
+            int readable = dataBuffer.readableByteCount();
+            if (this.overflown || this.length + (long) readable > this.maxBytes) {
+                // too large to be stored, stop copying
+                this.overflown = true;
+                this.storage = null;
+                return;
+            }
+            if (this.storage.length < this.length + readable) {
+                this.storage = Arrays.copyOf(this.storage,
+                        Math.max(this.length + readable, 2 * this.storage.length));
+            }
+            // the view has its own position, the buffer is left as it is
+            dataBuffer.asByteBuffer().get(this.storage, this.length, readable);
+            this.length += readable;
+            if (this.count == this.ends.length) {
+                this.ends = Arrays.copyOf(this.ends, 2 * this.ends.length);
+            }
+            this.ends[this.count++] = this.length;
+        }
+
+        boolean isOverflown() {
+            return this.overflown;
+        }
+
+        Entry toEntry() {
+            return new Entry(Arrays.copyOf(this.storage, this.length),
+                    Arrays.copyOf(this.ends, this.count));
+        }
+
+    }
+
+    private static final class Entry {
+
+        final byte[] storage;
+        final int[] ends;
+        final long created = System.nanoTime();
+
+        Entry(byte[] storage, int[] ends) {
+            this.storage = storage;
+            this.ends = ends;
+        }
+
+        Flux<DataBuffer> toDataBuffers(DataBufferFactory bufferFactory) {
+            return Flux.range(0, this.ends.length).map(i -> {
+                int start = i > 0 ? this.ends[i - 1] : 0;
+                ByteBuffer slice = ByteBuffer.wrap(this.storage, start, this.ends[i] - start)
+                        .asReadOnlyBuffer();
+                return bufferFactory.wrap(slice);
+            });
+        }
+
+    }
+
+}
@@ -0,0 +1,206 @@
+package com.example.decoder.controller;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.lang.Nullable;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ * Compresses a response body chunk by chunk, in {@code gzip} or
+ * {@code deflate} (zlib) format. Every chunk is sync-flushed, so the client
+ * can inflate and decode it as soon as it arrives.
+ * <p>
+ * {@link Deflater}s are pooled, since each one holds native memory that is
+ * costly to set up per response.
+ */
+public final class ResponseCompressor {
+
+    public static final String GZIP = "gzip";
+
+    public static final String DEFLATE = "deflate";
+
+    private static final int MAX_POOLED = 16;
+
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0,
+            0, 0, (byte) 0xff };
+
+    private static final BlockingQueue<Deflater> gzipDeflaters = new ArrayBlockingQueue<>(
+            MAX_POOLED);
+
+    private static final BlockingQueue<Deflater> zlibDeflaters = new ArrayBlockingQueue<>(
+            MAX_POOLED);
+
+    private final boolean gzip;
+    private final Deflater deflater;
+    private final DataBufferFactory bufferFactory;
+    private final CRC32 crc = new CRC32();
+    private final byte[] scratch = new byte[8192];
+    private byte[] input = new byte[0];
+    private boolean started;
+
+    private ResponseCompressor(boolean gzip, int level, DataBufferFactory bufferFactory) {
+        this.gzip = gzip;
+        Deflater deflater = (gzip ? gzipDeflaters : zlibDeflaters).poll();
+        this.deflater = deflater != null ? deflater : new Deflater(level, gzip);
+        this.deflater.setLevel(level);
+        this.bufferFactory = bufferFactory;
+    }
+
+    /**
+     * Picks the encoding for an {@code Accept-Encoding} header, preferring
+     * gzip over deflate.
+     *
+     * @return the encoding, or {@code null} if the body should not be
+     *         compressed
+     */
+    @Nullable
+    public static String negotiate(@Nullable String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        boolean deflate = false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (parts.length > 1 && isZeroQuality(parts[1])) {
+                continue;
+            }
+            if (GZIP.equalsIgnoreCase(name)) {
+                return GZIP;
+            }
+            deflate |= DEFLATE.equalsIgnoreCase(name);
+        }
+        return deflate ? DEFLATE : null;
+    }
+
+    private static boolean isZeroQuality(String parameter) {
+        String value = parameter.trim();
+        if (!value.startsWith("q=")) {
+            return false;
+        }
+        try {
+            return Double.parseDouble(value.substring(2)) == 0.0;
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Compresses the body in the given encoding. Input buffers are released
+     * once they have been compressed.
+     *
+     * @param level the {@link Deflater} compression level
+     */
+    public static Flux<DataBuffer> compress(Flux<DataBuffer> body, String encoding, int level,
+            DataBufferFactory bufferFactory) {
+        boolean gzip = GZIP.equals(encoding);
+        if (!gzip && !DEFLATE.equals(encoding)) {
+            return Flux.error(new IllegalArgumentException("unsupported encoding: " + encoding));
+        }
+        return Flux.defer(() -> {
+            ResponseCompressor compressor = new ResponseCompressor(gzip, level, bufferFactory);
+            return body.map(compressor::compress)
+                    .concatWith(Mono.fromSupplier(compressor::finish))
+                    .doFinally(signal -> compressor.release(signal != SignalType.CANCEL));
+        });
+    }
+
+    private DataBuffer compress(DataBuffer dataBuffer) {
+        int length = dataBuffer.readableByteCount();
+        DataBuffer output = this.bufferFactory.allocateBuffer(length / 2 + 64);
+        try {
+            if (!this.started && this.gzip) {
+                output.write(GZIP_HEADER);
+            }
+            this.started = true;
+
+            ByteBuffer byteBuffer = dataBuffer.asByteBuffer();
+            byte[] bytes;
+            int offset;
+            if (byteBuffer.hasArray()) {
+                bytes = byteBuffer.array();
+                offset = byteBuffer.arrayOffset() + byteBuffer.position();
+            }
+            else {
+                if (this.input.length < length) {
+                    this.input = new byte[Math.max(length, 2 * this.input.length)];
+                }
+                byteBuffer.get(this.input, 0, length);
+                bytes = this.input;
+                offset = 0;
+            }
+            if (this.gzip) {
+                this.crc.update(bytes, offset, length);
+            }
+            this.deflater.setInput(bytes, offset, length);
+
+            // a full scratch buffer means there may be more flushed output
+            int count;
+            do {
+                count = this.deflater.deflate(this.scratch, 0, this.scratch.length,
+                        Deflater.SYNC_FLUSH);
+                output.write(this.scratch, 0, count);
+            } while (count == this.scratch.length);
+            return output;
+        } catch (RuntimeException ex) {
+            DataBufferUtils.release(output);
+            throw ex;
+        } finally {
+            DataBufferUtils.release(dataBuffer);
+        }
+    }
+
+    private DataBuffer finish() {
+        DataBuffer output = this.bufferFactory.allocateBuffer(64);
+        if (!this.started && this.gzip) {
+            output.write(GZIP_HEADER);
+        }
+        this.started = true;
+
+        this.deflater.finish();
+        while (!this.deflater.finished()) {
+            int count = this.deflater.deflate(this.scratch);
+            output.write(this.scratch, 0, count);
+        }
+        if (this.gzip) {
+            writeIntLE(output, (int) this.crc.getValue());
+            writeIntLE(output, (int) this.deflater.getBytesRead());
+        }
+        return output;
+    }
+
+    private static void writeIntLE(DataBuffer output, int value) {
+        output.write((byte) value);
+        output.write((byte) (value >>> 8));
+        output.write((byte) (value >>> 16));
+        output.write((byte) (value >>> 24));
+    }
+
+    /**
+     * @param reusable whether no chunk can be compressed anymore; after a cancel a
+     *        chunk may still be compressed on the emitting thread, so the
+     *        deflater is ended rather than handed to another response
+     */
+    private void release(boolean reusable) {
+        if (!reusable) {
+            // waits for a running deflate, later calls fail and release their buffers
+            this.deflater.end();
+            return;
+        }
+        this.deflater.reset();
+        if (!(this.gzip ? gzipDeflaters : zlibDeflaters).offer(this.deflater)) {
+            this.deflater.end();
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.example.decoder.controller;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Lets a long-lived generator write into a different target, e.g. the next
+ * response buffer, for every batch.
+ */
+class RetargetableOutputStream extends OutputStream {
+
+    private OutputStream target;
+    private long written;
+
+    void setTarget(OutputStream target) {
+        this.target = target;
+    }
+
+    /**
+     * The number of bytes written since the last call to
+     * {@link #takeWritten()}.
+     */
+    long getWritten() {
+        return this.written;
+    }
+
+    /**
+     * The number of bytes written since the last call.
+     */
+    long takeWritten() {
+        long written = this.written;
+        this.written = 0L;
+        return written;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        target().write(b);
+        this.written++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        target().write(b, off, len);
+        this.written += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        target().flush();
+    }
+
+    private OutputStream target() throws IOException {
+        if (this.target == null) {
+            throw new IOException("no target to write to");
+        }
+        return this.target;
+    }
+
+}
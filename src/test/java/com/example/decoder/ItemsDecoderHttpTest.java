@@ -1,7 +1,10 @@
 package com.example.decoder;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 
+import java.time.Duration;
 import java.util.List;
 
 import org.junit.After;
@@ -10,28 +13,46 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.http.server.reactive.HttpHandler;
 import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
 import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.web.reactive.function.BodyExtractors;
 import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeStrategies;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.WebFilter;
 import org.springframework.web.server.adapter.WebHttpHandlerBuilder;
 import org.springframework.web.util.DefaultUriBuilderFactory;
 import org.springframework.web.util.UriBuilderFactory;
 
+import com.example.decoder.controller.DigestItemsRecorder;
 import com.example.decoder.controller.ItemsConfiguration;
+import com.example.decoder.controller.ItemsController;
+import com.example.decoder.controller.ResponseCache;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import io.netty.buffer.ByteBufAllocator;
 import reactor.core.publisher.Flux;
 import reactor.ipc.netty.NettyContext;
 import reactor.ipc.netty.http.server.HttpServer;
 
 @RunWith(SpringJUnit4ClassRunner.class)
-@ContextConfiguration(classes = { ItemsConfiguration.class })
+@ContextConfiguration(classes = { ItemsConfiguration.class,
+        ItemsDecoderHttpTest.RecorderConfiguration.class })
+@TestPropertySource(properties = { "items.compression=true", "items.cacheBytes=67108864" })
 public class ItemsDecoderHttpTest {
 
     private static final int ITEM_COUNT = Integer
@@ -41,34 +62,69 @@ public class ItemsDecoderHttpTest {
     private ApplicationContext context;
 
     @Autowired
-    private ItemsEntity testValueHolder;
+    private DigestItemsRecorder itemsRecorder;
+
+    @Autowired
+    private ResponseCache responseCache;
+
+    @Autowired
+    private StreamingEnvelopeDecoder<Item> itemsDecoder;
+
+    @Autowired
+    private StreamingEnvelopeDecoder<Item> smileItemsDecoder;
 
     private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder
             .json()
             .serializationInclusion(Include.NON_EMPTY)
             .build();
+    private final LeakTrackingDataBufferFactory bufferFactory = new LeakTrackingDataBufferFactory(
+            false);
+    // stands in for the buffer factory of every server response
+    private final LeakTrackingDataBufferFactory serverBufferFactory = new LeakTrackingDataBufferFactory(
+            new NettyDataBufferFactory(ByteBufAllocator.DEFAULT));
     private NettyContext server;
+    private UriBuilderFactory uriBuilderFactory;
     private WebClient webClient;
 
     @Before
     public void before() {
+        this.responseCache.clear();
+        WebFilter trackBuffers = (exchange, chain) -> chain.filter(exchange.mutate()
+                .response(new ServerHttpResponseDecorator(exchange.getResponse()) {
+                    @Override
+                    public DataBufferFactory bufferFactory() {
+                        return ItemsDecoderHttpTest.this.serverBufferFactory;
+                    }
+                })
+                .build());
         HttpHandler handler = WebHttpHandlerBuilder
-                .applicationContext(this.context).build();
+                .applicationContext(this.context)
+                .filter(trackBuffers)
+                .build();
         this.server = HttpServer.create(0)
                 .newHandler(new ReactorHttpHandlerAdapter(handler))
                 .block();
 
-        UriBuilderFactory uriBuilderFactory = new DefaultUriBuilderFactory(
+        this.uriBuilderFactory = new DefaultUriBuilderFactory(
                 "http://localhost:" + this.server.address().getPort());
 
         this.webClient = WebClient.builder()
-                .uriBuilderFactory(uriBuilderFactory)
+                .uriBuilderFactory(this.uriBuilderFactory)
+                .exchangeStrategies(ExchangeStrategies.builder()
+                        .codecs(configurer -> {
+                            configurer.customCodecs().decoder(this.itemsDecoder);
+                            configurer.customCodecs().decoder(this.smileItemsDecoder);
+                        })
+                        .build())
                 .build();
     }
 
     @After
-    public void after() {
+    public void after() throws InterruptedException {
         this.server.dispose();
+        // Netty releases written buffers asynchronously
+        this.serverBufferFactory.assertReleased(Duration.ofSeconds(5));
+        this.bufferFactory.assertReleased();
     }
 
     @Test
@@ -79,7 +135,121 @@ public class ItemsDecoderHttpTest {
                 .exchange()
                 .flatMapMany(this::handleItemsResponse);
         List<Item> result = response.collectList().block();
-        assertEquals(this.testValueHolder.getItems(), result);
+        assertRecorded(result);
+    }
+
+    @Test
+    public void testBulkHttpBodyToFlux() {
+        Flux<Item> response = this.webClient.get() //
+                .uri("/items/" + ITEM_COUNT)
+                .accept(MediaType.APPLICATION_JSON)
+                .retrieve()
+                .bodyToFlux(Item.class);
+        List<Item> result = response.collectList().block();
+        assertRecorded(result);
+    }
+
+    @Test
+    public void testBulkHttpSmile() {
+        MediaType smile = MediaType.valueOf("application/x-jackson-smile");
+        Flux<Item> response = this.webClient.get() //
+                .uri("/items/" + ITEM_COUNT)
+                .accept(smile)
+                .exchange()
+                .flatMapMany(clientResponse -> {
+                    assertEquals(smile, clientResponse.headers().contentType().orElse(null));
+                    return clientResponse.bodyToFlux(Item.class);
+                });
+        List<Item> result = response.collectList().block();
+        assertRecorded(result);
+    }
+
+    @Test
+    public void testBulkHttpNdjson() {
+        Flux<Item> response = this.webClient.get() //
+                .uri("/items/" + ITEM_COUNT)
+                .accept(StreamingEnvelopeDecoder.APPLICATION_NDJSON)
+                .retrieve()
+                .bodyToFlux(Item.class);
+        List<Item> result = response.collectList().block();
+        assertRecorded(result);
+    }
+
+    @Test
+    public void testBulkHttpGzip() {
+        verifyCompressed("gzip");
+    }
+
+    @Test
+    public void testBulkHttpDeflate() {
+        verifyCompressed("deflate");
+    }
+
+    private void verifyCompressed(String encoding) {
+        // the default connector would inflate gzip responses itself
+        WebClient webClient = WebClient.builder()
+                .uriBuilderFactory(this.uriBuilderFactory)
+                .clientConnector(new ReactorClientHttpConnector(options -> {
+                }))
+                .build();
+        Flux<Item> response = webClient.get() //
+                .uri("/items/" + ITEM_COUNT)
+                .accept(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.ACCEPT_ENCODING, encoding)
+                .exchange()
+                .flatMapMany(clientResponse -> {
+                    String contentEncoding = clientResponse.headers().asHttpHeaders()
+                            .getFirst(HttpHeaders.CONTENT_ENCODING);
+                    assertEquals(encoding, contentEncoding);
+                    Flux<DataBuffer> body = clientResponse.body(BodyExtractors.toDataBuffers());
+                    return ItemsDecoder.transform(ContentInflater.inflate(body, contentEncoding,
+                            this.bufferFactory), this.objectMapper);
+                });
+        List<Item> result = response.collectList().block();
+        assertRecorded(result);
+    }
+
+    @Test
+    public void testResumeHttp() {
+        String seed = this.webClient.head()
+                .uri("/items/0")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .map(response -> response.headers().asHttpHeaders()
+                        .getFirst(ItemsController.SEED_HEADER))
+                .block();
+        assertNotNull(seed);
+        List<Item> expected = ItemsDecoder
+                .transform(fetchItems(seed, 0), this.objectMapper)
+                .collectList()
+                .block();
+
+        long hits = this.responseCache.getHitCount();
+
+        Flux<Item> resumed = ItemsDecoder.transformResumable(offset -> {
+            Flux<DataBuffer> body = fetchItems(seed, offset);
+            // break off the first response after a few chunks
+            return offset == 0 ? body.take(5) : body;
+        }, this.objectMapper, 1);
+        List<Item> result = resumed.collectList().block();
+        assertEquals(ITEM_COUNT, result.size());
+        assertEquals(expected, result);
+        // the broken off response was written from the cache
+        assertEquals(hits + 1, this.responseCache.getHitCount());
+    }
+
+    private Flux<DataBuffer> fetchItems(String seed, long offset) {
+        return this.webClient.get()
+                .uri("/items/{count}?offset={offset}&seed={seed}", ITEM_COUNT, offset, seed)
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .flatMapMany(response -> response.body(BodyExtractors.toDataBuffers()));
+    }
+
+    private void assertRecorded(List<Item> result) {
+        assertEquals(ITEM_COUNT, this.itemsRecorder.getCount());
+        assertEquals(ITEM_COUNT, result.size());
+        assertArrayEquals(this.itemsRecorder.getDigest(), DigestItemsRecorder.digestOf(result));
     }
 
     private Flux<Item> handleItemsResponse(ClientResponse response) {
@@ -88,4 +258,17 @@ public class ItemsDecoderHttpTest {
                         this.objectMapper));
     }
 
+    /**
+     * Lets the tests verify the items the server has written.
+     */
+    @Configuration
+    static class RecorderConfiguration {
+
+        @Bean
+        public DigestItemsRecorder itemsRecorder() {
+            return new DigestItemsRecorder();
+        }
+
+    }
+
 }
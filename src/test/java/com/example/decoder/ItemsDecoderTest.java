@@ -1,24 +1,52 @@
 package com.example.decoder;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
+import org.junit.After;
 import org.junit.Test;
 import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.DataBufferFactory;
-import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
 
+import com.example.decoder.DecoderLimits.Limit;
+import com.example.decoder.controller.ItemsResponseEncoder;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 import reactor.test.StepVerifier;
 import reactor.test.StepVerifier.Step;
 
@@ -32,19 +60,725 @@ public class ItemsDecoderTest {
 
     private static Random rnd = new Random(0x0123456789abcdefL);
 
-    private final DataBufferFactory dataBufferFactory = new DefaultDataBufferFactory();
+    private final LeakTrackingDataBufferFactory dataBufferFactory = new LeakTrackingDataBufferFactory(
+            false);
+    private final LeakTrackingDataBufferFactory directBufferFactory = new LeakTrackingDataBufferFactory(
+            true);
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    @After
+    public void assertReleased() {
+        this.dataBufferFactory.assertReleased();
+        this.directBufferFactory.assertReleased();
+    }
+
     @Test
     public void testBulk() {
+        verifyBulk(this.dataBufferFactory::wrap);
+    }
+
+    @Test
+    public void testBulkDirectBuffers() {
+        verifyBulk(bytes -> this.directBufferFactory.allocateBuffer(bytes.length).write(bytes));
+    }
+
+    @Test
+    public void testDirectBuffersSideBySide() {
+        // each decoder stops in the middle of a chunk, which must not be
+        // overwritten by the other one
+        for (int run = 0; run < 2; run++) {
+            List<Item> first = new ArrayList<>();
+            List<Item> second = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                first.add(new Item(UUID.randomUUID().toString()));
+                second.add(new Item(UUID.randomUUID().toString()));
+            }
+            Flux<Item> firstItems = ItemsDecoder.transform(
+                    toDirectChunks(toBytes(toItemsJson(first)), 100), this.objectMapper);
+            Flux<Item> secondItems = ItemsDecoder.transform(
+                    toDirectChunks(toBytes(toItemsJson(second)), 100), this.objectMapper);
+
+            Step<List<Item>> verifier = StepVerifier.create(Flux.zip(
+                    pair -> Arrays.asList((Item) pair[0], (Item) pair[1]), 1, firstItems,
+                    secondItems));
+            for (int i = 0; i < first.size(); i++) {
+                verifier = verifier.expectNext(Arrays.asList(first.get(i), second.get(i)));
+            }
+            verifier.verifyComplete();
+        }
+    }
+
+    @Test
+    public void testBulkParallelBinding() {
+        StreamingEnvelopeDecoder<Item> decoder = new StreamingEnvelopeDecoder<>(this.objectMapper,
+                Item.class);
+        decoder.setBindingScheduler(Schedulers.parallel(), 4);
+        verifyBulk(this.dataBufferFactory::wrap, decoder::decode);
+    }
+
+    @Test
+    public void testParallelBindingErrors() {
+        StreamingEnvelopeDecoder<Item> decoder = new StreamingEnvelopeDecoder<>(this.objectMapper,
+                Item.class);
+        decoder.setBindingScheduler(Schedulers.parallel(), 4);
+
+        Flux<DataBuffer> envelopeError = chunks("{\"items\":[{\"uuid\":\"a\"},{\"uuid\":\"b\"}],",
+                "\"error\":{\"message\":\"failed\"}}");
+        StepVerifier.create(decoder.decode(envelopeError))
+                .expectNext(new Item("a"), new Item("b"))
+                .expectErrorMessage("failed")
+                .verify();
+
+        Flux<DataBuffer> bindingError = chunks(
+                "{\"items\":[{\"uuid\":\"a\"},{\"unknown\":1},{\"uuid\":\"c\"}]}");
+        StepVerifier.create(decoder.decode(bindingError))
+                .expectNext(new Item("a"))
+                .expectErrorSatisfies(ex -> assertTrue(
+                        ex.getMessage().startsWith("Could not parse message response")))
+                .verify();
+    }
+
+    @Test
+    public void testBulkCompactItems() {
+        StreamingEnvelopeDecoder<CompactItem> bindingDecoder = new StreamingEnvelopeDecoder<>(
+                this.objectMapper, CompactItem.class);
+        bindingDecoder.setEntityBinder(new CompactItemBinder());
+        verifyBulk(this.dataBufferFactory::wrap,
+                dataBuffers -> bindingDecoder.decode(dataBuffers).map(CompactItem::toItem));
+
+        StreamingEnvelopeDecoder<CompactItem> genericDecoder = new StreamingEnvelopeDecoder<>(
+                this.objectMapper, CompactItem.class);
+        verifyBulk(this.dataBufferFactory::wrap,
+                dataBuffers -> genericDecoder.decode(dataBuffers).map(CompactItem::toItem));
+    }
+
+    @Test
+    public void testCompactItemJson() throws Exception {
+        Item item = new Item(UUID.randomUUID().toString());
+        CompactItem compactItem = CompactItem.of(item);
+        assertEquals(toJson(item), this.objectMapper.writeValueAsString(compactItem));
+        assertEquals(compactItem,
+                this.objectMapper.readValue(toJson(item), CompactItem.class));
+
+        StreamingEnvelopeDecoder<CompactItem> decoder = new StreamingEnvelopeDecoder<>(
+                this.objectMapper, CompactItem.class);
+        decoder.setEntityBinder(new CompactItemBinder());
+        Flux<DataBuffer> dataBuffers = chunks("{\"items\":[{\"uuid\":\"" + item.getUuid() + "\"},",
+                "{\"uuid\":\"not-a-uuid\"}]}");
+        StepVerifier.create(decoder.decode(dataBuffers))
+                .expectNext(compactItem)
+                .expectErrorSatisfies(ex -> assertTrue(
+                        ex.getMessage().startsWith("Could not parse message response")))
+                .verify();
+    }
+
+    @Test
+    public void testEncodedBuffersBoundedByBytes() throws IOException {
+        // items of varying size, up to about 2 KB each
+        List<Item> items = IntStream.range(0, 100)
+                .mapToObj(i -> new Item(String.join("", Collections.nCopies(1 + rnd.nextInt(50),
+                        UUID.randomUUID().toString()))))
+                .collect(Collectors.toList());
+        ItemsResponseEncoder encoder = new ItemsResponseEncoder(this.objectMapper);
+        List<DataBuffer> dataBuffers = new ArrayList<>();
+        Iterator<Item> remaining = items.iterator();
+        while (remaining.hasNext()) {
+            DataBuffer dataBuffer = this.dataBufferFactory.allocateBuffer(4096);
+            encoder.addItems(dataBuffer.asOutputStream(), remaining, 4096);
+            // at most one item beyond the limit
+            assertTrue(dataBuffer.readableByteCount() < 4096 + 2000);
+            dataBuffers.add(dataBuffer);
+        }
+        DataBuffer last = this.dataBufferFactory.allocateBuffer(64);
+        encoder.finish(last.asOutputStream());
+        dataBuffers.add(last);
+        assertTrue(dataBuffers.size() > 10);
+
+        StepVerifier.create(ItemsDecoder.transform(Flux.fromIterable(dataBuffers),
+                this.objectMapper))
+                .expectNextSequence(items)
+                .verifyComplete();
+    }
+
+    @Test
+    public void testEncoderFailsWithinItem() throws IOException {
+        ItemsResponseEncoder encoder = new ItemsResponseEncoder(this.objectMapper);
+        DataBuffer first = this.dataBufferFactory.allocateBuffer(256);
+        encoder.addItems(first.asOutputStream(), Arrays.asList(new Item("a"), new Item("b")));
+
+        DataBuffer second = this.dataBufferFactory.allocateBuffer(256);
+        try {
+            encoder.addItems(second.asOutputStream(),
+                    Arrays.asList(new Item("c"), new BrokenItem()));
+            fail("Expected JsonMappingException");
+        } catch (JsonMappingException ex) {
+            // the buffer is dropped, as by the controller
+            DataBufferUtils.release(second);
+        }
+        // no error member can follow the broken item, the response ends with the error
+        assertTrue(encoder.isFinished());
+
+        StepVerifier.create(ItemsDecoder.transform(Flux.just(first), this.objectMapper))
+                .expectNext(new Item("a"), new Item("b"))
+                .expectError(IncompleteEnvelopeException.class)
+                .verify();
+    }
+
+    @Test
+    public void testBulkBatches() {
+        ItemBatchPool pool = new ItemBatchPool(100, 4);
+        verifyBulk(this.dataBufferFactory::wrap,
+                dataBuffers -> ItemsDecoder.transformToBatches(dataBuffers, this.objectMapper, pool)
+                        .concatMapIterable(this::releaseBatch));
+        assertTrue(pool.getPooledCount() > 0);
+    }
+
+    @Test
+    public void testBatchesCancelledWithPendingBatch() {
+        List<Item> items = IntStream.range(0, 6)
+                .mapToObj(i -> new Item(UUID.randomUUID().toString()))
+                .collect(Collectors.toList());
+        Flux<DataBuffer> dataBuffers = chunks(toItemsJson(items));
+        ItemBatchPool pool = new ItemBatchPool(2, 4);
+
+        List<ItemBatch> received = new ArrayList<>();
+
+        // the second batch is decoded while waiting for demand; cancelling
+        // from within onNext would stop the drain loop before that
+        Disposable subscription = ItemsDecoder
+                .transformToBatches(dataBuffers, this.objectMapper, pool)
+                .subscribe(received::add, null, null, s -> s.request(1));
+        assertEquals(1, received.size());
+        subscription.dispose();
+        assertEquals(1, pool.getPooledCount());
+        received.get(0).release();
+    }
+
+    @Test
+    public void testBatchesErrorAfterItems() {
+        String uuid = UUID.randomUUID().toString();
+        Flux<DataBuffer> dataBuffers = chunks("{\"items\":[{\"uuid\":\"" + uuid + "\"},{},{\"uu",
+                "id\":\"" + uuid + "\"}],\"error\":{\"message\":\"failed\"}}");
+        ItemBatchPool pool = new ItemBatchPool(2, 4);
+
+        StepVerifier.create(ItemsDecoder.transformToBatches(dataBuffers, this.objectMapper, pool)
+                .concatMapIterable(this::releaseBatch))
+                .expectNext(new Item(uuid), new Item("00000000-0000-0000-0000-000000000000"),
+                        new Item(uuid))
+                .expectErrorMessage("failed")
+                .verify();
+        assertTrue(pool.getPooledCount() > 0);
+    }
+
+    @Test
+    public void testLimits() {
+        verifyLimit(DecoderLimits.NONE.withMaxEntityBytes(20), Limit.ENTITY_BYTES,
+                "{\"items\":[{\"uuid\":\"a\"},{\"uuid\":\"", "0123456789\"}]}");
+        verifyLimit(DecoderLimits.NONE.withMaxEntityBytes(20), Limit.ENTITY_BYTES,
+                "{\"items\":[],\"error\":{\"message\":\"", "0123456789\"}}");
+        verifyLimit(DecoderLimits.NONE.withMaxDepth(3), Limit.DEPTH,
+                "{\"items\":[{\"uuid\":\"a\",\"x\":[1]}]}");
+        verifyLimit(DecoderLimits.NONE.withMaxItems(1), Limit.ITEMS,
+                "{\"items\":[{\"uuid\":\"a\"},{\"uuid\":\"b\"}]}");
+        verifyLimit(DecoderLimits.NONE.withMaxBufferedBytes(16), Limit.BUFFERED_BYTES,
+                "{\"items\":[{\"uuid\":\"a\"}]}");
+    }
+
+    @Test
+    public void testIgnoredFields() {
+        String[] chunks = { "{\"meta\":{\"a\":[1,{\"b\"", ":2}]},\"items\":[{\"uuid\":\"a\"}],",
+                "\"debug\":\"x\",\"other\":3}" };
+
+        StreamingEnvelopeDecoder<Item> decoder = new StreamingEnvelopeDecoder<>(this.objectMapper,
+                Item.class);
+        decoder.setIgnoredFields(Arrays.asList("meta", "debug"));
+        StepVerifier.create(decoder.decode(chunks(chunks)))
+                .expectNext(new Item("a"))
+                .expectErrorMessage("Could not parse message response: unknown field name")
+                .verify();
+
+        decoder.setIgnoreUnknownFields(true);
+        StepVerifier.create(decoder.decode(chunks(chunks)))
+                .expectNext(new Item("a"))
+                .expectComplete()
+                .verify();
+    }
+
+    @Test
+    public void testEnvelopeFields() {
+        StreamingEnvelopeDecoder<Item> decoder = new StreamingEnvelopeDecoder<>(this.objectMapper,
+                Item.class);
+        decoder.setIgnoreUnknownFields(true);
+        EnvelopeFields fields = new EnvelopeFields("paging", "total");
+        Flux<DataBuffer> dataBuffers = chunks("{\"paging\":{\"next\":\"a", "bc\"},\"debug\":[1,2],",
+                "\"items\":[{\"uuid\":\"a\"}],\"total\":1}");
+
+        StepVerifier.create(decoder.decode(dataBuffers, fields))
+                .expectNext(new Item("a"))
+                .expectComplete()
+                .verify();
+        Map<String, JsonNode> values = fields.get().block();
+        assertEquals(2, values.size());
+        assertEquals("abc", values.get("paging").get("next").asText());
+        assertEquals(1, values.get("total").asInt());
+    }
+
+    @Test
+    public void testFailFast() {
+        AtomicInteger requested = new AtomicInteger();
+        Flux<DataBuffer> dataBuffers = chunks("{\"items\":[{\"uuid\":\"a\"}],\"error\":{\"mess",
+                "age\":\"failed\"},\"items2\":[", "{\"uuid\":\"b\"}]}")
+                .doOnRequest(n -> requested.addAndGet((int) n));
+        StreamingEnvelopeDecoder<Item> decoder = new StreamingEnvelopeDecoder<>(this.objectMapper,
+                Item.class);
+        decoder.setIgnoreUnknownFields(true);
+        decoder.setFailFast(true);
+        AtomicBoolean cancelled = new AtomicBoolean();
+
+        StepVerifier.create(decoder.decode(dataBuffers.doOnCancel(() -> cancelled.set(true))))
+                .expectNext(new Item("a"))
+                .expectErrorSatisfies(ex -> assertEquals("failed",
+                        ((ItemsErrorException) ex).getErrorDetail().getMessage()))
+                .verify();
+        assertTrue(cancelled.get());
+        // the last chunk is never requested
+        assertEquals(2, requested.get());
+    }
+
+    @Test
+    public void testPrefetch() {
+        List<String> chunks = new ArrayList<>();
+        chunks.add("{\"items\":[");
+        for (int i = 0; i < 20; i++) {
+            chunks.add(toJson(new Item(UUID.randomUUID().toString())) + ",");
+        }
+        chunks.add(toJson(new Item("last")) + "]}");
+        AtomicInteger requested = new AtomicInteger();
+        Flux<DataBuffer> dataBuffers = chunks(chunks.toArray(new String[0]))
+                .doOnRequest(n -> requested.addAndGet((int) n));
+        StreamingEnvelopeDecoder<Item> decoder = new StreamingEnvelopeDecoder<>(this.objectMapper,
+                Item.class);
+        decoder.setEntityBinder(new ItemBinder());
+
+        // chunks are 47 bytes, the first one 10; the decoder holds the first
+        // item of the second chunk, with three chunks queued behind it; the
+        // setting applies on subscribe, like the others
+        Flux<Item> items = decoder.decode(dataBuffers);
+        decoder.setPrefetchBytes(100);
+        StepVerifier.create(items, 0)
+                .then(() -> assertEquals(5, requested.get()))
+                .thenRequest(1)
+                .expectNextCount(1)
+                .then(() -> assertEquals(6, requested.get()))
+                .thenRequest(Long.MAX_VALUE)
+                .expectNextCount(20)
+                .verifyComplete();
+
+        requested.set(0);
+        decoder.setPrefetchBytes(0);
+        StepVerifier.create(decoder.decode(dataBuffers), 0)
+                .then(() -> assertEquals(0, requested.get()))
+                .thenRequest(1)
+                .expectNextCount(1)
+                .then(() -> assertEquals(2, requested.get()))
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    public void testPrefetchLimit() {
+        Flux<DataBuffer> dataBuffers = chunks("{\"items\":[{\"uuid\":", "\"a\"},{\"uuid\":",
+                "\"b\"},{\"uuid\":", "\"c\"}]}");
+        StreamingEnvelopeDecoder<Item> decoder = new StreamingEnvelopeDecoder<>(this.objectMapper,
+                Item.class);
+        decoder.setLimits(DecoderLimits.NONE.withMaxBufferedBytes(30));
+        decoder.setPrefetchBytes(1000);
+
+        StepVerifier.create(decoder.decode(dataBuffers), 0)
+                .expectErrorSatisfies(ex -> assertEquals(Limit.BUFFERED_BYTES,
+                        ((DecoderLimitException) ex).getLimit()))
+                .verify();
+    }
+
+    @Test
+    public void testIncompleteInput() {
+        String[] chunks = { "{\"items\":[{\"uuid\":\"a\"},{\"uu", "id\":\"b\"},{\"uuid\"" };
+        Flux<DataBuffer> dataBuffers = chunks(chunks);
+
+        StepVerifier.create(ItemsDecoder.transform(dataBuffers, this.objectMapper))
+                .expectNext(new Item("a"), new Item("b"))
+                .expectErrorSatisfies(ex -> {
+                    IncompleteEnvelopeException incomplete = (IncompleteEnvelopeException) ex;
+                    assertEquals(2, incomplete.getItemCount());
+                    assertEquals(toBytes(chunks[0]).length + toBytes(chunks[1]).length,
+                            incomplete.getByteCount());
+                })
+                .verify();
+    }
+
+    @Test
+    public void testResumable() {
+        List<Item> items = IntStream.range(0, 10)
+                .mapToObj(i -> new Item(UUID.randomUUID().toString()))
+                .collect(Collectors.toList());
+        List<Long> offsets = new ArrayList<>();
+
+        Flux<Item> resumed = ItemsDecoder.transformResumable(offset -> {
+            offsets.add(offset);
+            Flux<DataBuffer> dataBuffers = chunks(toItemsJson(items.subList((int) offset, 10)));
+            // the first attempt is cut off, the second one fails in transport
+            if (offset == 0) {
+                return dataBuffers.map(dataBuffer -> dataBuffer.slice(0, 100));
+            }
+            if (offsets.size() == 2) {
+                return dataBuffers.map(dataBuffer -> dataBuffer.slice(0, 120))
+                        .concatWith(Flux.error(new IOException("connection reset")));
+            }
+            return dataBuffers;
+        }, this.objectMapper, 2);
+
+        StepVerifier.create(resumed)
+                .expectNextSequence(items)
+                .verifyComplete();
+        assertEquals(3, offsets.size());
+        assertTrue(offsets.get(1) > 0);
+        assertTrue(offsets.get(2) > offsets.get(1));
+    }
+
+    @Test
+    public void testResumableEnvelopeError() {
+        AtomicInteger attempts = new AtomicInteger();
+        Flux<Item> resumed = ItemsDecoder.transformResumable(offset -> {
+            attempts.incrementAndGet();
+            return chunks("{\"items\":[],\"error\":{\"message\":\"failed\"}}");
+        }, this.objectMapper, 2);
+
+        StepVerifier.create(resumed)
+                .expectError(ItemsErrorException.class)
+                .verify();
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void testBlockingStream() {
+        List<Item> items = IntStream.range(0, 1000)
+                .mapToObj(i -> new Item(UUID.randomUUID().toString()))
+                .collect(Collectors.toList());
+        Flux<DataBuffer> dataBuffers = toRandomChunks(toBytes(toItemsJson(items)))
+                .subscribeOn(Schedulers.parallel());
+
+        try (Stream<Item> stream = ItemsDecoder.toStream(dataBuffers, this.objectMapper, 16)) {
+            assertEquals(items, stream.collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testBlockingStreamClosedEarly() {
+        List<Item> items = IntStream.range(0, 1000)
+                .mapToObj(i -> new Item(UUID.randomUUID().toString()))
+                .collect(Collectors.toList());
+        byte[] bytes = toBytes(toItemsJson(items));
+        AtomicBoolean cancelled = new AtomicBoolean();
+        // chunks are only allocated when requested, as they would be when read
+        Flux<DataBuffer> dataBuffers = Flux.range(0, (bytes.length + 99) / 100)
+                .map(i -> this.dataBufferFactory.wrap(Arrays.copyOfRange(bytes, 100 * i,
+                        Math.min(bytes.length, 100 * (i + 1)))))
+                .doOnCancel(() -> cancelled.set(true));
+
+        try (Stream<Item> stream = ItemsDecoder.toStream(dataBuffers, this.objectMapper, 16)) {
+            assertEquals(items.subList(0, 3), stream.limit(3).collect(Collectors.toList()));
+        }
+        assertTrue(cancelled.get());
+    }
+
+    @Test
+    public void testBlockingIteratorDemand() {
+        List<Long> requests = new ArrayList<>();
+        BlockingEntityIterator<Integer> iterator = new BlockingEntityIterator<>(
+                Flux.range(0, 100).doOnRequest(requests::add), 8);
+        assertEquals(Integer.valueOf(0), iterator.next());
+        assertEquals(Arrays.asList(8L), requests);
+        for (int i = 1; i < 6; i++) {
+            assertEquals(Integer.valueOf(i), iterator.next());
+        }
+        // taking three quarters of the capacity requests as many again
+        assertEquals(Arrays.asList(8L, 6L), requests);
+        iterator.close();
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testBlockingIteratorClosedWhileWaiting() throws Exception {
+        CountDownLatch requested = new CountDownLatch(1);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        BlockingEntityIterator<Integer> iterator = new BlockingEntityIterator<>(
+                Flux.<Integer>never()
+                        .doOnRequest(n -> requested.countDown())
+                        .doOnCancel(() -> cancelled.set(true)), 8);
+        CompletableFuture<Boolean> hasNext = CompletableFuture.supplyAsync(iterator::hasNext);
+        assertTrue(requested.await(5, TimeUnit.SECONDS));
+
+        iterator.close();
+        assertFalse(hasNext.get(5, TimeUnit.SECONDS));
+        assertTrue(cancelled.get());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testBlockingIteratorError() {
+        Flux<DataBuffer> dataBuffers = chunks("{\"items\":[{\"uuid\":\"a\"},{\"uuid\":\"b\"}],",
+                "\"error\":{\"message\":\"failed\"}}");
+
+        BlockingEntityIterator<Item> iterator = ItemsDecoder.toIterator(dataBuffers,
+                this.objectMapper, 1);
+        assertEquals(new Item("a"), iterator.next());
+        assertEquals(new Item("b"), iterator.next());
+        try {
+            iterator.hasNext();
+            fail("Expected ItemsErrorException");
+        } catch (ItemsErrorException ex) {
+            assertEquals("failed", ex.getMessage());
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testGzipContentCancelled() throws IOException {
+        List<Item> items = IntStream.range(0, 1000)
+                .mapToObj(i -> new Item(UUID.randomUUID().toString()))
+                .collect(Collectors.toList());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(baos)) {
+            out.write(toBytes(toItemsJson(items)));
+        }
+        byte[] gzip = baos.toByteArray();
+        // chunks are only allocated when requested, so a cancel leaves none behind
+        Flux<DataBuffer> dataBuffers = Flux.range(0, (gzip.length + 99) / 100)
+                .map(i -> this.dataBufferFactory.wrap(Arrays.copyOfRange(gzip, 100 * i,
+                        Math.min(gzip.length, 100 * (i + 1)))));
+
+        // the inflater of the cancelled stream must not be handed to the next one
+        StepVerifier.create(ItemsDecoder.transform(ContentInflater.inflate(dataBuffers, "gzip",
+                this.dataBufferFactory), this.objectMapper))
+                .expectNextSequence(items.subList(0, 10))
+                .thenCancel()
+                .verify();
+        for (int i = 0; i < 2; i++) {
+            StepVerifier.create(ItemsDecoder.transform(ContentInflater.inflate(dataBuffers,
+                    "gzip", this.dataBufferFactory), this.objectMapper))
+                    .expectNextSequence(items)
+                    .verifyComplete();
+        }
+    }
+
+    @Test
+    public void testGzipContent() throws IOException {
+        List<Item> items = IntStream.range(0, 100)
+                .mapToObj(i -> new Item(UUID.randomUUID().toString()))
+                .collect(Collectors.toList());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(baos)) {
+            out.write(toBytes(toItemsJson(items)));
+        }
+        byte[] gzip = baos.toByteArray();
+        // add a file name to the header
+        byte[] name = toBytes("items.json\0");
+        byte[] named = new byte[gzip.length + name.length];
+        System.arraycopy(gzip, 0, named, 0, 10);
+        named[3] = 8;
+        System.arraycopy(name, 0, named, 10, name.length);
+        System.arraycopy(gzip, 10, named, 10 + name.length, gzip.length - 10);
+
+        StepVerifier.create(ItemsDecoder.transform(ContentInflater.inflate(
+                toRandomChunks(named), "gzip", this.dataBufferFactory), this.objectMapper))
+                .expectNextSequence(items)
+                .verifyComplete();
+
+        byte[] truncated = Arrays.copyOf(gzip, gzip.length - 20);
+        StepVerifier.create(ItemsDecoder.transform(ContentInflater.inflate(
+                toRandomChunks(truncated), "gzip", this.dataBufferFactory), this.objectMapper))
+                .thenConsumeWhile(item -> true)
+                .expectError(EOFException.class)
+                .verify();
+    }
+
+    @Test
+    public void testDeflateContent() throws IOException {
+        List<Item> items = IntStream.range(0, 100)
+                .mapToObj(i -> new Item(UUID.randomUUID().toString()))
+                .collect(Collectors.toList());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(baos)) {
+            out.write(toBytes(toItemsJson(items)));
+        }
+
+        StepVerifier.create(ItemsDecoder.transform(ContentInflater.inflate(
+                toRandomChunks(baos.toByteArray()), "deflate", this.dataBufferFactory),
+                this.objectMapper))
+                .expectNextSequence(items)
+                .verifyComplete();
+    }
+
+    @Test
+    public void testNdjson() {
+        List<Item> items = IntStream.range(0, 1000)
+                .mapToObj(i -> new Item(UUID.randomUUID().toString()))
+                .collect(Collectors.toList());
+        // a blank line, an unknown field that takes the generic route, no final newline
+        String lines = items.stream()
+                .map(this::toJson)
+                .collect(Collectors.joining("\n", "\n", ""))
+                .replace("{\"uuid\"", "{\"id\":1,\"uuid\"");
+        ObjectMapper objectMapper = new ObjectMapper()
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+        StepVerifier.create(ItemsDecoder.transformLines(toRandomChunks(toBytes(lines)), objectMapper))
+                .expectNextSequence(items)
+                .verifyComplete();
+    }
+
+    @Test
+    public void testNdjsonNestedObjects() {
+        // nested objects in the first field and in a later one, both leave the binder
+        String lines = "{\"uuid\":\"a\",\"meta\":{\"x\":1}}\n"
+                + "{\"meta\":{\"x\":{\"y\":2}},\"uuid\":\"b\"}\n{\"uuid\":\"c\"}\n";
+        ObjectMapper objectMapper = new ObjectMapper()
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+        StepVerifier.create(ItemsDecoder.transformLines(toRandomChunks(toBytes(lines)), objectMapper))
+                .expectNext(new Item("a"), new Item("b"), new Item("c"))
+                .verifyComplete();
+    }
+
+    @Test
+    public void testNdjsonNestedObjectsWithoutBinder() throws IOException {
+        String[] lines = { "{\"meta\":{\"x\":1},\"uuid\":\"a\"}",
+                "{\"uuid\":\"b\",\"meta\":{\"x\":{\"y\":[2]}}}", "{}" };
+        StreamingEnvelopeDecoder<JsonNode> decoder = new StreamingEnvelopeDecoder<>(
+                this.objectMapper, JsonNode.class);
+
+        Step<JsonNode> step = StepVerifier.create(decoder.decodeLines(
+                toRandomChunks(toBytes(String.join("\n", lines)))));
+        for (String line : lines) {
+            step = step.expectNext(this.objectMapper.readTree(line));
+        }
+        step.verifyComplete();
+    }
+
+    @Test
+    public void testNdjsonError() {
+        Flux<DataBuffer> dataBuffers = Flux
+                .just("{\"uuid\":\"a\"}\n{\"uu", "id\":\"b\"}\n{\"error\":{\"mes",
+                        "sage\":\"failed\"}}\n")
+                .map(this::toBytes)
+                .map(this.directBufferFactory::wrap);
+
+        StepVerifier.create(ItemsDecoder.transformLines(dataBuffers, this.objectMapper))
+                .expectNext(new Item("a"), new Item("b"))
+                .expectErrorSatisfies(ex -> assertEquals("failed",
+                        ((ItemsErrorException) ex).getErrorDetail().getMessage()))
+                .verify();
+    }
+
+    @Test
+    public void testNdjsonIncomplete() {
+        Flux<DataBuffer> dataBuffers = chunks("{\"uuid\":\"a\"}\n{\"uu", "id\":\"b");
+
+        StepVerifier.create(ItemsDecoder.transformLines(dataBuffers, this.objectMapper))
+                .expectNext(new Item("a"))
+                .expectErrorSatisfies(ex -> assertEquals(1,
+                        ((IncompleteEnvelopeException) ex).getItemCount()))
+                .verify();
+    }
+
+    @Test
+    public void testErrorAfterItems() {
+        Flux<DataBuffer> dataBuffers = chunks("{\"items\":[{\"uuid\":\"a\"},{\"uu",
+                "id\":\"b\"}],\"error\":{\"mes", "sage\":\"failed\"}}");
+
+        StepVerifier.create(ItemsDecoder.transform(dataBuffers, this.objectMapper), 0)
+                .thenRequest(1)
+                .expectNext(new Item("a"))
+                .thenRequest(1)
+                .expectNext(new Item("b"))
+                .thenRequest(1)
+                .expectErrorMessage("failed")
+                .verify();
+    }
+
+    @Test
+    public void testGenericFallback() {
+        ObjectMapper lenientMapper = new ObjectMapper()
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        Flux<DataBuffer> dataBuffers = chunks("{\"items\":[{\"uuid\":\"a\",\"extra\":{\"x\":[1]}},",
+                "{\"uuid\":2},{\"other\":true,\"uuid\":\"c\"}]}");
+
+        StepVerifier.create(ItemsDecoder.transform(dataBuffers, lenientMapper))
+                .expectNext(new Item("a"), new Item("2"), new Item("c"))
+                .expectComplete()
+                .verify();
+    }
+
+    @Test
+    public void testNestedEnvelopePath() {
+        StreamingEnvelopeDecoder<Item> decoder = new StreamingEnvelopeDecoder<>(this.objectMapper,
+                Item.class, "data.items", "data.error");
+        Flux<DataBuffer> dataBuffers = chunks("{\"data\":{\"items\":[{\"uuid\":\"a\"}],",
+                "\"error\":{\"message\":\"failed\"}}}");
+
+        StepVerifier.create(decoder.decode(dataBuffers))
+                .expectNext(new Item("a"))
+                .expectErrorMessage("failed")
+                .verify();
+    }
+
+    @Test
+    public void testMetrics() {
+        List<Long> itemSizes = new ArrayList<>();
+        long[] totals = new long[3];
+        DecoderMetrics metrics = new DecoderMetrics() {
+            @Override
+            public void chunkDecoded(int bytes, int items, long parseNanos) {
+                totals[0] += bytes;
+                totals[1] += items;
+                totals[2]++;
+            }
+
+            @Override
+            public void itemDecoded(long bytes) {
+                itemSizes.add(bytes);
+            }
+        };
+        String[] chunks = { "{\"items\":[{\"uuid\":\"a\"},{\"uu", "id\":\"bc\"},",
+                "{\"uuid\":\"d\",\"x\":[1]}]}" };
+        Flux<DataBuffer> dataBuffers = chunks(chunks);
+        ObjectMapper lenientMapper = new ObjectMapper()
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+        StepVerifier.create(ItemsDecoder.transform(dataBuffers, lenientMapper, metrics))
+                .expectNext(new Item("a"), new Item("bc"), new Item("d"))
+                .expectComplete()
+                .verify();
+
+        assertEquals(String.join("", chunks).length(), totals[0]);
+        assertEquals(3L, totals[1]);
+        assertEquals(3L, totals[2]);
+        assertEquals(Arrays.asList(12L, 13L, 20L), itemSizes);
+    }
+
+    private void verifyBulk(Function<byte[], DataBuffer> toDataBuffer) {
+        verifyBulk(toDataBuffer,
+                dataBuffers -> ItemsDecoder.transform(dataBuffers, this.objectMapper));
+    }
+
+    private void verifyBulk(Function<byte[], DataBuffer> toDataBuffer,
+            Function<Flux<DataBuffer>, Flux<Item>> decode) {
         List<Item> items = IntStream.range(0, ITEM_COUNT)
                 .mapToObj(i -> UUID.randomUUID().toString())
                 .map(Item::new)
                 .collect(Collectors.toList());
 
-        String json = items.stream()
-                .map(this::toJson)
-                .collect(Collectors.joining(",", "{\"items\":[", "]}"));
+        String json = toItemsJson(items);
 
         Flux<String> flux = Flux.generate(
                 () -> 0,
@@ -60,9 +794,9 @@ public class ItemsDecoderTest {
                 });
         Flux<DataBuffer> dataBuffers = flux
                 .map(this::toBytes)
-                .map(this.dataBufferFactory::wrap);
+                .map(toDataBuffer);
 
-        Flux<Item> results = ItemsDecoder.transform(dataBuffers, this.objectMapper);
+        Flux<Item> results = decode.apply(dataBuffers);
 
         Step<Item> verifier = StepVerifier.create(results);
         for (Item item : items) {
@@ -72,6 +806,74 @@ public class ItemsDecoderTest {
                 .verify();
     }
 
+    private void verifyLimit(DecoderLimits limits, Limit limit, String... chunks) {
+        StreamingEnvelopeDecoder<Item> decoder = new StreamingEnvelopeDecoder<>(this.objectMapper,
+                Item.class);
+        decoder.setEntityBinder(new ItemBinder());
+        decoder.setLimits(limits);
+
+        StepVerifier.create(decoder.decode(chunks(chunks)))
+                .thenConsumeWhile(item -> true)
+                .expectErrorSatisfies(ex -> assertEquals(limit,
+                        ((DecoderLimitException) ex).getLimit()))
+                .verify();
+    }
+
+    private List<Item> releaseBatch(ItemBatch batch) {
+        List<Item> items = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            items.add(batch.get(i).toItem());
+        }
+        batch.release();
+        return items;
+    }
+
+    /**
+     * Chunks that are only allocated when requested, from the tracking
+     * factory, so a test needn't check their release itself.
+     */
+    private Flux<DataBuffer> chunks(String... chunks) {
+        return Flux.fromArray(chunks)
+                .map(this::toBytes)
+                .map(this.dataBufferFactory::wrap);
+    }
+
+    private Flux<DataBuffer> toRandomChunks(byte[] bytes) {
+        List<DataBuffer> chunks = new ArrayList<>();
+        for (int offset = 0; offset < bytes.length;) {
+            int length = Math.min(bytes.length - offset, 1 + rnd.nextInt(20));
+            chunks.add(this.dataBufferFactory.wrap(Arrays.copyOfRange(bytes, offset, offset + length)));
+            offset += length;
+        }
+        return Flux.fromIterable(chunks);
+    }
+
+    private Flux<DataBuffer> toDirectChunks(byte[] bytes, int chunkSize) {
+        List<DataBuffer> chunks = new ArrayList<>();
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            int length = Math.min(bytes.length - offset, chunkSize);
+            chunks.add(this.directBufferFactory.allocateBuffer(length).write(bytes, offset, length));
+        }
+        return Flux.fromIterable(chunks);
+    }
+
+    /**
+     * Fails while its object is being written.
+     */
+    static class BrokenItem {
+
+        public String getUuid() {
+            throw new IllegalStateException("broken");
+        }
+
+    }
+
+    private String toItemsJson(List<Item> items) {
+        return items.stream()
+                .map(this::toJson)
+                .collect(Collectors.joining(",", "{\"items\":[", "]}"));
+    }
+
     private String toJson(Item item) {
         try {
             return this.objectMapper.writeValueAsString(item);
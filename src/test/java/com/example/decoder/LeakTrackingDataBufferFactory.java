@@ -0,0 +1,103 @@
+package com.example.decoder;
+
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+
+import io.netty.buffer.EmptyByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+/**
+ * Hands out reference counted Netty buffers and keeps track of them, so a
+ * test can check that every buffer it allocated has been released.
+ */
+class LeakTrackingDataBufferFactory implements DataBufferFactory {
+
+    private final NettyDataBufferFactory delegate;
+
+    private final Queue<NettyDataBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+    LeakTrackingDataBufferFactory(boolean preferDirect) {
+        this(new NettyDataBufferFactory(new UnpooledByteBufAllocator(preferDirect)));
+    }
+
+    LeakTrackingDataBufferFactory(NettyDataBufferFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public DataBuffer allocateBuffer() {
+        return track(this.delegate.allocateBuffer());
+    }
+
+    @Override
+    public DataBuffer allocateBuffer(int initialCapacity) {
+        return track(this.delegate.allocateBuffer(initialCapacity));
+    }
+
+    @Override
+    public DataBuffer wrap(ByteBuffer byteBuffer) {
+        return track(this.delegate.wrap(byteBuffer));
+    }
+
+    @Override
+    public DataBuffer wrap(byte[] bytes) {
+        return track(this.delegate.wrap(bytes));
+    }
+
+    @Override
+    public DataBuffer join(List<? extends DataBuffer> dataBuffers) {
+        // the joined buffer takes over the parts
+        return track(this.delegate.join(dataBuffers));
+    }
+
+    private DataBuffer track(DataBuffer dataBuffer) {
+        NettyDataBuffer nettyBuffer = (NettyDataBuffer) dataBuffer;
+        // wrapping an empty array gives the shared empty buffer, which is never released
+        if (!(nettyBuffer.getNativeBuffer() instanceof EmptyByteBuf)) {
+            this.buffers.add(nettyBuffer);
+        }
+        return dataBuffer;
+    }
+
+    /**
+     * Fails if a buffer is still referenced, and forgets the released ones.
+     */
+    void assertReleased() {
+        long leaked = this.buffers.stream().filter(LeakTrackingDataBufferFactory::isReferenced)
+                .count();
+        if (leaked != 0) {
+            fail(leaked + " of " + this.buffers.size() + " buffers not released");
+        }
+        this.buffers.clear();
+    }
+
+    /**
+     * Waits for buffers that are released asynchronously, e.g. once Netty
+     * has written them.
+     */
+    void assertReleased(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (this.buffers.stream().noneMatch(LeakTrackingDataBufferFactory::isReferenced)) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        assertReleased();
+    }
+
+    private static boolean isReferenced(NettyDataBuffer dataBuffer) {
+        return dataBuffer.getNativeBuffer().refCnt() != 0;
+    }
+
+}